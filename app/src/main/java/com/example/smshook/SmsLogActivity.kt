@@ -129,6 +129,7 @@ class SmsLogActivity : AppCompatActivity() {
                     "timestamp" to smsLogEntry.timestamp,
                     "subscriptionId" to smsLogEntry.subscriptionId,
                     "isTest" to smsLogEntry.isTest,
+                    "msgId" to smsLogEntry.effectiveMsgId(),
                     "logId" to smsLogEntry.id
                 )
             )
@@ -5,10 +5,10 @@ import android.util.Log
 import com.example.smshook.config.ServerConfig
 import com.example.smshook.logs.LogLevel
 import com.example.smshook.logs.LogManager
+import com.example.smshook.net.ZeusHttp
 import com.example.smshook.ussd.UssdStepResult
 import com.google.gson.Gson
 import okhttp3.MediaType.Companion.toMediaType
-import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.RequestBody.Companion.toRequestBody
 import java.io.IOException
@@ -16,11 +16,7 @@ import java.io.IOException
 object ZeusApi {
     private const val TAG = "ZeusApi"
     private val gson = Gson()
-    private val client = OkHttpClient.Builder()
-        .connectTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-        .readTimeout(60, java.util.concurrent.TimeUnit.SECONDS) // Increased from 30 to 60 seconds
-        .writeTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-        .build()
+    private val client get() = ZeusHttp.api
     
     // Get base URL dynamically from configuration
     private fun getBaseUrl(context: Context): String {
@@ -36,10 +32,10 @@ object ZeusApi {
             Log.d(TAG, "Token length: ${token.length}")
             post(context, "${getBaseUrl(context)}/register", body)
             Log.d(TAG, "FCM token registered for device: $deviceId")
-            LogManager.addLog(LogLevel.API, TAG, "FCM token registered successfully", "Device: $deviceId")
+            LogManager.log(LogLevel.API, TAG, "FCM token registered successfully") { "Device: $deviceId" }
         } catch (e: Exception) {
             Log.e(TAG, "Failed to register FCM token: ${e.message}", e)
-            LogManager.addLog(LogLevel.ERROR, TAG, "Failed to register FCM token", "Error: ${e.message}, Type: ${e.javaClass.simpleName}")
+            LogManager.log(LogLevel.ERROR, TAG, "Failed to register FCM token") { "Error: ${e.message}, Type: ${e.javaClass.simpleName}" }
         }
     }
 
@@ -52,10 +48,10 @@ object ZeusApi {
             Log.d(TAG, "Registering SIM slots: $body")
             post(context, "${getBaseUrl(context)}/sim-slots", body)
             Log.d(TAG, "SIM slots registered for device: $deviceId")
-            LogManager.addLog(LogLevel.API, TAG, "SIM slots registered successfully", "Device: $deviceId, Slots: ${simSlots.size}")
+            LogManager.log(LogLevel.API, TAG, "SIM slots registered successfully") { "Device: $deviceId, Slots: ${simSlots.size}" }
         } catch (e: Exception) {
             Log.e(TAG, "Failed to register SIM slots: ${e.message}", e)
-            LogManager.addLog(LogLevel.ERROR, TAG, "Failed to register SIM slots", "Error: ${e.message}, Type: ${e.javaClass.simpleName}")
+            LogManager.log(LogLevel.ERROR, TAG, "Failed to register SIM slots") { "Error: ${e.message}, Type: ${e.javaClass.simpleName}" }
         }
     }
 
@@ -68,22 +64,19 @@ object ZeusApi {
         
         repeat(maxRetries + 1) { attempt ->
             try {
-                LogManager.addLog(LogLevel.API, TAG, "Fetching job details (attempt ${attempt + 1})", "Job ID: $jobId")
+                LogManager.log(LogLevel.API, TAG, "Fetching job details") { "Job ID: $jobId, attempt ${attempt + 1}" }
                 val response = get(context, "${getBaseUrl(context)}/jobs/$jobId")
                 val job = gson.fromJson(response, Job::class.java)
-                LogManager.addLog(
-                    LogLevel.API,
-                    TAG,
-                    "Job details fetched successfully",
+                LogManager.log(LogLevel.API, TAG, "Job details fetched successfully") {
                     "Operator: ${job.operator}, SIM: ${job.simSlot}, Code: ${job.code}, Steps: ${job.steps}, Seq: ${job.seq}"
-                )
+                }
                 return job
             } catch (e: Exception) {
                 lastException = e
                 Log.e(TAG, "Attempt ${attempt + 1} failed to fetch job details: ${e.message}", e)
                 
                 if (attempt < maxRetries) {
-                    LogManager.addLog(LogLevel.API, TAG, "Retrying job fetch", "Attempt ${attempt + 1} failed, retrying...")
+                    LogManager.log(LogLevel.API, TAG, "Retrying job fetch") { "Attempt ${attempt + 1} failed, retrying..." }
                     // Wait before retry (exponential backoff)
                     Thread.sleep(1000L * (attempt + 1))
                 }
@@ -91,7 +84,7 @@ object ZeusApi {
         }
         
         // If all retries failed, throw the last exception
-        LogManager.addLog(LogLevel.ERROR, TAG, "All attempts failed to fetch job details", "Job ID: $jobId, Error: ${lastException?.message}")
+        LogManager.log(LogLevel.ERROR, TAG, "All attempts failed to fetch job details") { "Job ID: $jobId, Error: ${lastException?.message}" }
         throw lastException ?: Exception("Failed to fetch job details after $maxRetries retries")
     }
 
@@ -101,7 +94,7 @@ object ZeusApi {
             val body = gson.toJson(outcome)
             post(context, "${getBaseUrl(context)}/jobs/$jobId/complete", body)
             Log.d(TAG, "Job completed: $jobId")
-            LogManager.addLog(LogLevel.API, TAG, "Job completed successfully", "Job ID: $jobId")
+            LogManager.log(LogLevel.API, TAG, "Job completed successfully") { "Job ID: $jobId" }
         } catch (e: Exception) {
             Log.e(TAG, "Failed to complete job: ${e.message}")
             LogManager.addLog(LogLevel.ERROR, TAG, "Failed to complete job", e.message)
@@ -120,7 +113,7 @@ object ZeusApi {
             val body = gson.toJson(responseData)
             post(context, "${getBaseUrl(context)}/jobs/$jobId/response", body)
             Log.d(TAG, "USSD response sent: $jobId")
-            LogManager.addLog(LogLevel.API, TAG, "USSD response sent successfully", "Job ID: $jobId, Success: $success")
+            LogManager.log(LogLevel.API, TAG, "USSD response sent successfully") { "Job ID: $jobId, Success: $success" }
         } catch (e: Exception) {
             Log.e(TAG, "Failed to send USSD response: ${e.message}")
             LogManager.addLog(LogLevel.ERROR, TAG, "Failed to send USSD response", e.message)
@@ -0,0 +1,89 @@
+package com.example.smshook.config
+
+import android.content.Context
+import android.content.SharedPreferences
+import com.example.smshook.fragments.ConfigurationFragment
+import com.example.smshook.fragments.WebhookConfig
+import com.example.smshook.sms.DeliveryPolicy
+import com.example.smshook.sms.LaneClassifier
+import com.example.smshook.sms.SmsRules
+import com.example.smshook.sms.WebhookRouter
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Immutable snapshot of the forwarding preferences, with webhook secrets already
+ * decrypted and rules and routes already compiled. It is rebuilt only when
+ * `ZeusSMSPrefs` changes, so the SMS hot path reads fields instead of parsing JSON
+ * and decrypting on every message.
+ */
+class ForwardingConfig private constructor(
+    val forwardingEnabled: Boolean,
+    /** Enabled webhooks, sorted by priority. */
+    val enabledWebhooks: List<WebhookConfig>,
+    val router: WebhookRouter,
+    /** Secret of the legacy single webhook, used for the rule override URL. */
+    val legacySecret: String,
+    val retryMaxAttempts: Int,
+    val retryBaseSeconds: Long,
+    val deliveryPolicy: DeliveryPolicy,
+    val deliveryPolicyCount: Int,
+    val rules: SmsRules,
+    val ruleOverrideUrl: String?,
+    val laneClassifier: LaneClassifier,
+    /** How much of a webhook response is read so its connection can be reused. */
+    val responseDrainBytes: Long,
+    /** Multiplier for batch limits while on a metered network; 1 leaves batching as configured. */
+    val meteredBatchFactor: Int
+) {
+
+    companion object {
+        private val current = AtomicReference<ForwardingConfig?>()
+
+        // SharedPreferences only keeps a weak reference to its listeners
+        private var listener: SharedPreferences.OnSharedPreferenceChangeListener? = null
+
+        /** Current snapshot; the first call builds it and starts listening for changes. */
+        fun get(context: Context): ForwardingConfig {
+            current.get()?.let { return it }
+            synchronized(this) {
+                current.get()?.let { return it }
+                val appContext = context.applicationContext
+                val prefs = appContext.getSharedPreferences(ConfigurationFragment.PREFS_NAME, Context.MODE_PRIVATE)
+                if (listener == null) {
+                    val changeListener = SharedPreferences.OnSharedPreferenceChangeListener { _, _ ->
+                        current.set(build(appContext, prefs))
+                    }
+                    prefs.registerOnSharedPreferenceChangeListener(changeListener)
+                    listener = changeListener
+                }
+                // A change that landed while building has already published a newer snapshot
+                current.compareAndSet(null, build(appContext, prefs))
+                return current.get()!!
+            }
+        }
+
+        private fun build(context: Context, prefs: SharedPreferences): ForwardingConfig {
+            val raw = ConfigurationFragment.getRawRules(context)
+            val webhooks = ConfigurationFragment.getEnabledWebhookConfigs(context)
+            return ForwardingConfig(
+                forwardingEnabled = prefs.getBoolean(ConfigurationFragment.KEY_FORWARDING_ENABLED, true),
+                enabledWebhooks = webhooks,
+                router = WebhookRouter.compile(webhooks),
+                legacySecret = ConfigurationFragment.getWebhookSecret(context) ?: "",
+                retryMaxAttempts = ConfigurationFragment.getRetryMaxAttempts(context),
+                retryBaseSeconds = ConfigurationFragment.getRetryBaseSeconds(context),
+                deliveryPolicy = ConfigurationFragment.getDeliveryPolicy(context),
+                deliveryPolicyCount = ConfigurationFragment.getDeliveryPolicyCount(context),
+                rules = SmsRules.compile(raw[0], raw[1], raw[2]),
+                ruleOverrideUrl = ConfigurationFragment.getRuleOverrideUrl(context),
+                laneClassifier = LaneClassifier.compile(
+                    ConfigurationFragment.getExpressSenders(context),
+                    ConfigurationFragment.getExpressKeywords(context),
+                    ConfigurationFragment.isExpressOtpDetectionEnabled(context)
+                ),
+                responseDrainBytes = ConfigurationFragment.getResponseDrainLimitBytes(context),
+                meteredBatchFactor = ConfigurationFragment.getMeteredBatchFactor(context)
+            )
+        }
+    }
+}
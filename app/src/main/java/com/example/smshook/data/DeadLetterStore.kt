@@ -0,0 +1,254 @@
+package com.example.smshook.data
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+
+/** Why a delivery ended up in the [DeadLetterStore]. */
+enum class DeadLetterReason {
+    /** The endpoint rejected the message (4xx). */
+    CLIENT_ERROR,
+    /** The endpoint kept failing (5xx) until retries ran out. */
+    SERVER_ERROR,
+    /** No response at all (connection failures, timeouts) until retries ran out. */
+    NETWORK,
+    /** Never posted, e.g. an unsafe URL or an open circuit until retries ran out. */
+    NOT_SENT;
+
+    companion object {
+        fun of(entry: SmsLogEntry): DeadLetterReason {
+            val status = entry.lastHttpStatus
+            return when {
+                status != null && status in 400..499 -> CLIENT_ERROR
+                status != null -> SERVER_ERROR
+                entry.attempts.isNotEmpty() -> NETWORK
+                else -> NOT_SENT
+            }
+        }
+    }
+}
+
+/** A delivery that failed for good, with everything needed to send it again. */
+data class DeadLetter(
+    val logId: Long,
+    val webhookId: String,
+    val webhookUrl: String?,
+    val reason: DeadLetterReason,
+    val error: String?,
+    val msgId: String?,
+    val sender: String,
+    val body: String,
+    val timestamp: Long,
+    val subscriptionId: Int,
+    val isTest: Boolean,
+    val failedAt: Long
+)
+
+/** Number of dead letters for one destination and reason. */
+data class DeadLetterGroup(
+    val webhookId: String,
+    val reason: DeadLetterReason,
+    val count: Int,
+    val oldestFailedAt: Long
+)
+
+/**
+ * Deliveries that exhausted their retries or were rejected, one row per log entry, indexed
+ * by destination and [DeadLetterReason]. Unlike the SMS log, rows do not age out of a hot
+ * tier, so thousands of them can be listed and replayed in bulk
+ * ([com.example.smshook.sms.DeadLetterReplayer]). A row being replayed is claimed first
+ * (`replay_log_id`, 0 until its new log entry exists) and leaves the store once the
+ * forwarder has taken the delivery over; a replay that fails again comes back under its
+ * new log entry. Claims left by a dead process are found with [claims].
+ */
+class DeadLetterStore private constructor(context: Context) :
+    SQLiteOpenHelper(context, DB_NAME, null, DB_VERSION) {
+
+    companion object {
+        private const val DB_NAME = "dead_letters.db"
+        private const val DB_VERSION = 2
+        private const val T_DEAD = "dead_letter"
+
+        @Volatile
+        private var INSTANCE: DeadLetterStore? = null
+
+        fun getInstance(context: Context): DeadLetterStore {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: DeadLetterStore(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+    }
+
+    override fun onConfigure(db: SQLiteDatabase) {
+        db.enableWriteAheadLogging()
+    }
+
+    override fun onCreate(db: SQLiteDatabase) {
+        db.execSQL(
+            """
+            CREATE TABLE $T_DEAD (
+                log_id INTEGER PRIMARY KEY,
+                webhook_id TEXT NOT NULL,
+                webhook_url TEXT,
+                reason TEXT NOT NULL,
+                error TEXT,
+                msg_id TEXT,
+                sender TEXT NOT NULL,
+                body TEXT NOT NULL,
+                timestamp INTEGER NOT NULL,
+                subscription_id INTEGER NOT NULL,
+                is_test INTEGER NOT NULL,
+                failed_at INTEGER NOT NULL,
+                replay_log_id INTEGER
+            )
+            """.trimIndent()
+        )
+        db.execSQL("CREATE INDEX ${T_DEAD}_destination ON $T_DEAD (webhook_id, reason, log_id)")
+    }
+
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        if (oldVersion < 2) db.execSQL("ALTER TABLE $T_DEAD ADD COLUMN replay_log_id INTEGER")
+    }
+
+    /** Records [letter], whose log entry has just been marked failed; replaces an older row for it. */
+    fun add(letter: DeadLetter) {
+        val values = ContentValues().apply {
+            put("log_id", letter.logId)
+            put("webhook_id", letter.webhookId)
+            put("webhook_url", letter.webhookUrl)
+            put("reason", letter.reason.name)
+            put("error", letter.error)
+            put("msg_id", letter.msgId)
+            put("sender", letter.sender)
+            put("body", letter.body)
+            put("timestamp", letter.timestamp)
+            put("subscription_id", letter.subscriptionId)
+            put("is_test", if (letter.isTest) 1 else 0)
+            put("failed_at", letter.failedAt)
+        }
+        writableDatabase.insertWithOnConflict(T_DEAD, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+    }
+
+    /** Counts per destination and reason, largest first. */
+    fun groups(): List<DeadLetterGroup> {
+        val groups = ArrayList<DeadLetterGroup>()
+        readableDatabase.rawQuery(
+            "SELECT webhook_id, reason, COUNT(*), MIN(failed_at) FROM $T_DEAD GROUP BY webhook_id, reason ORDER BY COUNT(*) DESC",
+            null
+        ).use { c ->
+            while (c.moveToNext()) {
+                val reason = DeadLetterReason.values().find { it.name == c.getString(1) } ?: continue
+                groups += DeadLetterGroup(c.getString(0), reason, c.getInt(2), c.getLong(3))
+            }
+        }
+        return groups
+    }
+
+    /** Rows matching the filter (null = any) with `log_id` in ([afterLogId], [maxLogId]], oldest first. */
+    fun page(
+        webhookId: String?,
+        reason: DeadLetterReason?,
+        afterLogId: Long,
+        maxLogId: Long,
+        limit: Int
+    ): List<DeadLetter> {
+        val (where, args) = filter(webhookId, reason, afterLogId, maxLogId)
+        val rows = ArrayList<DeadLetter>()
+        readableDatabase.query(T_DEAD, null, where, args, null, null, "log_id", limit.toString()).use { c ->
+            while (c.moveToNext()) rows += readRow(c)
+        }
+        return rows
+    }
+
+    fun count(webhookId: String? = null, reason: DeadLetterReason? = null, maxLogId: Long = Long.MAX_VALUE): Int {
+        val (where, args) = filter(webhookId, reason, Long.MIN_VALUE, maxLogId)
+        readableDatabase.rawQuery("SELECT COUNT(*) FROM $T_DEAD WHERE $where", args).use { c ->
+            return if (c.moveToFirst()) c.getInt(0) else 0
+        }
+    }
+
+    /** Highest log id among rows that failed at or before [failedBefore], or 0 when there are none. */
+    fun maxLogId(failedBefore: Long = Long.MAX_VALUE): Long {
+        readableDatabase.rawQuery(
+            "SELECT MAX(log_id) FROM $T_DEAD WHERE failed_at <= ?",
+            arrayOf(failedBefore.toString())
+        ).use { c ->
+            return if (c.moveToFirst() && !c.isNull(0)) c.getLong(0) else 0L
+        }
+    }
+
+    /** Marks [logId] as being replayed; false if it is gone or another replay has it. */
+    fun claim(logId: Long): Boolean {
+        val values = ContentValues().apply { put("replay_log_id", 0L) }
+        return writableDatabase.update(T_DEAD, values, "log_id = ? AND replay_log_id IS NULL", arrayOf(logId.toString())) == 1
+    }
+
+    /** Records the log entry created for the claimed row [logId]. */
+    fun attachReplay(logId: Long, replayLogId: Long) {
+        val values = ContentValues().apply { put("replay_log_id", replayLogId) }
+        writableDatabase.update(T_DEAD, values, "log_id = ?", arrayOf(logId.toString()))
+    }
+
+    /** Gives a claimed row back, e.g. after its replay failed before reaching the forwarder. */
+    fun release(logId: Long) {
+        val values = ContentValues().apply { putNull("replay_log_id") }
+        writableDatabase.update(T_DEAD, values, "log_id = ?", arrayOf(logId.toString()))
+    }
+
+    /** Claimed rows: log id to the log entry created for its replay (0 if none yet). */
+    fun claims(): Map<Long, Long> {
+        val claims = HashMap<Long, Long>()
+        readableDatabase.rawQuery("SELECT log_id, replay_log_id FROM $T_DEAD WHERE replay_log_id IS NOT NULL", null).use { c ->
+            while (c.moveToNext()) claims[c.getLong(0)] = c.getLong(1)
+        }
+        return claims
+    }
+
+    /** Removes [logId]; false if it was already gone. */
+    fun remove(logId: Long): Boolean =
+        writableDatabase.delete(T_DEAD, "log_id = ?", arrayOf(logId.toString())) == 1
+
+    fun clear() {
+        writableDatabase.delete(T_DEAD, null, null)
+    }
+
+    private fun filter(
+        webhookId: String?,
+        reason: DeadLetterReason?,
+        afterLogId: Long,
+        maxLogId: Long
+    ): Pair<String, Array<String>> {
+        val clauses = mutableListOf("log_id > ?", "log_id <= ?")
+        val args = mutableListOf(afterLogId.toString(), maxLogId.toString())
+        if (webhookId != null) {
+            clauses += "webhook_id = ?"
+            args += webhookId
+        }
+        if (reason != null) {
+            clauses += "reason = ?"
+            args += reason.name
+        }
+        return clauses.joinToString(" AND ") to args.toTypedArray()
+    }
+
+    private fun readRow(c: Cursor): DeadLetter {
+        fun col(name: String) = c.getColumnIndexOrThrow(name)
+        fun string(name: String) = if (c.isNull(col(name))) null else c.getString(col(name))
+        return DeadLetter(
+            logId = c.getLong(col("log_id")),
+            webhookId = c.getString(col("webhook_id")),
+            webhookUrl = string("webhook_url"),
+            reason = DeadLetterReason.values().find { it.name == c.getString(col("reason")) } ?: DeadLetterReason.NOT_SENT,
+            error = string("error"),
+            msgId = string("msg_id"),
+            sender = c.getString(col("sender")),
+            body = c.getString(col("body")),
+            timestamp = c.getLong(col("timestamp")),
+            subscriptionId = c.getInt(col("subscription_id")),
+            isTest = c.getInt(col("is_test")) != 0,
+            failedAt = c.getLong(col("failed_at"))
+        )
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.smshook.data
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+
+/**
+ * Which webhook has acknowledged which message id. Consulted before every delivery so
+ * that retries, replays and manual resends never post a message twice to a destination
+ * that already accepted it. Kept apart from the SMS log so clearing the log does not
+ * forget acknowledgements; rows expire after [RETENTION_MS].
+ */
+class DeliveryLedger private constructor(context: Context) :
+    SQLiteOpenHelper(context, DB_NAME, null, DB_VERSION) {
+
+    companion object {
+        private const val DB_NAME = "delivery_ledger.db"
+        private const val DB_VERSION = 1
+        private const val T_ACK = "ack"
+
+        private const val RETENTION_MS = 30L * 24 * 60 * 60 * 1000
+        // Expired rows are pruned once per this many acknowledgements
+        private const val PRUNE_EVERY = 500
+
+        @Volatile
+        private var INSTANCE: DeliveryLedger? = null
+
+        fun getInstance(context: Context): DeliveryLedger {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: DeliveryLedger(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+    }
+
+    private var acksSincePrune = 0
+
+    override fun onConfigure(db: SQLiteDatabase) {
+        db.enableWriteAheadLogging()
+    }
+
+    override fun onCreate(db: SQLiteDatabase) {
+        db.execSQL(
+            """
+            CREATE TABLE $T_ACK (
+                msg_id TEXT NOT NULL,
+                webhook_id TEXT NOT NULL,
+                acked_at INTEGER NOT NULL,
+                PRIMARY KEY (msg_id, webhook_id)
+            ) WITHOUT ROWID
+            """.trimIndent()
+        )
+        db.execSQL("CREATE INDEX ${T_ACK}_acked_at ON $T_ACK (acked_at)")
+    }
+
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        // Only one schema version so far
+    }
+
+    fun isAcknowledged(msgId: String, webhookId: String): Boolean {
+        readableDatabase.rawQuery(
+            "SELECT 1 FROM $T_ACK WHERE msg_id = ? AND webhook_id = ?",
+            arrayOf(msgId, webhookId)
+        ).use { return it.moveToFirst() }
+    }
+
+    fun recordAck(msgId: String, webhookId: String, now: Long = System.currentTimeMillis()) {
+        val values = ContentValues().apply {
+            put("msg_id", msgId)
+            put("webhook_id", webhookId)
+            put("acked_at", now)
+        }
+        val db = writableDatabase
+        db.insertWithOnConflict(T_ACK, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+        val prune = synchronized(this) {
+            if (++acksSincePrune < PRUNE_EVERY) false else true.also { acksSincePrune = 0 }
+        }
+        if (prune) db.delete(T_ACK, "acked_at < ?", arrayOf((now - RETENTION_MS).toString()))
+    }
+}
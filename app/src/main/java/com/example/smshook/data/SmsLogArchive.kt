@@ -0,0 +1,146 @@
+package com.example.smshook.data
+
+import android.util.Log
+import com.google.gson.Gson
+import java.io.BufferedReader
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStreamReader
+import java.io.OutputStreamWriter
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.TimeZone
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+/**
+ * Cold tier of the SMS log: immutable, gzip-compressed NDJSON segments under
+ * `filesDir/sms_archive`, partitioned by UTC day of the message timestamp.
+ *
+ * Segment names are `<yyyyMMdd>_<firstId>_<lastId>.jsonl.gz`, so queries can skip
+ * whole days without opening files, and the highest archived id is known from the
+ * directory listing alone. Not thread-safe; [SmsLogManager] only touches it from its
+ * I/O thread.
+ */
+class SmsLogArchive(filesDir: File) {
+
+    companion object {
+        private const val TAG = "SmsLogArchive"
+        private const val DIR_NAME = "sms_archive"
+        private const val SUFFIX = ".jsonl.gz"
+        private const val DAY_MS = 24L * 60 * 60 * 1000
+    }
+
+    private data class Segment(val file: File, val day: String, val firstId: Long, val lastId: Long)
+
+    private val dir = File(filesDir, DIR_NAME).apply { mkdirs() }
+    private val gson = Gson()
+    private val dayFormat = SimpleDateFormat("yyyyMMdd", Locale.US).apply {
+        timeZone = TimeZone.getTimeZone("UTC")
+    }
+
+    /** Highest entry id already archived, or 0 when the archive is empty. */
+    fun lastArchivedId(): Long = listSegments().maxOfOrNull { it.lastId } ?: 0L
+
+    /**
+     * Writes [entries] (ascending ids) as new segments, one per day. Each segment is
+     * written to a temp file, synced and renamed, so a crash never leaves a partial one.
+     */
+    fun append(entries: List<SmsLogEntry>) {
+        if (entries.isEmpty()) return
+        entries.groupBy { dayOf(it.timestamp) }.forEach { (day, dayEntries) ->
+            val name = "${day}_${dayEntries.first().id}_${dayEntries.last().id}$SUFFIX"
+            val tmp = File(dir, "$name.tmp")
+            FileOutputStream(tmp).use { fos ->
+                val gzip = GZIPOutputStream(fos)
+                val writer = OutputStreamWriter(gzip, Charsets.UTF_8)
+                dayEntries.forEach { entry ->
+                    writer.write(gson.toJson(entry))
+                    writer.write("\n")
+                }
+                writer.flush()
+                gzip.finish()
+                fos.fd.sync()
+            }
+            if (!tmp.renameTo(File(dir, name))) {
+                tmp.delete()
+                throw IOException("Could not publish archive segment $name")
+            }
+        }
+    }
+
+    /**
+     * Returns up to [limit] archived entries with timestamps in [fromMillis, toMillis],
+     * newest first. Segments are opened newest first and only until [limit] is reached.
+     */
+    fun query(fromMillis: Long, toMillis: Long, limit: Int): List<SmsLogEntry> {
+        val fromDay = dayOf(fromMillis)
+        val toDay = dayOf(toMillis)
+        val result = ArrayList<SmsLogEntry>()
+        val candidates = listSegments()
+            .filter { it.day in fromDay..toDay }
+            .sortedWith(compareByDescending<Segment> { it.day }.thenByDescending { it.lastId })
+
+        for (segment in candidates) {
+            if (result.size >= limit) break
+            val matches = readSegment(segment.file).filter { it.timestamp in fromMillis..toMillis }
+            result.addAll(matches.sortedByDescending { it.timestamp }.take(limit - result.size))
+        }
+        return result
+    }
+
+    /**
+     * Deletes segments older than [maxAgeDays], then the oldest remaining ones until the
+     * archive fits in [maxBytes].
+     */
+    fun enforceRetention(maxAgeDays: Int, maxBytes: Long, now: Long = System.currentTimeMillis()) {
+        val cutoffDay = dayOf(now - maxAgeDays * DAY_MS)
+        val segments = listSegments().sortedWith(compareBy<Segment> { it.day }.thenBy { it.firstId })
+        var total = segments.sumOf { it.file.length() }
+        var removed = 0
+        for (segment in segments) {
+            if (segment.day >= cutoffDay && total <= maxBytes) break
+            total -= segment.file.length()
+            if (segment.file.delete()) removed++
+        }
+        if (removed > 0) Log.d(TAG, "Retention removed $removed archive segments")
+    }
+
+    fun clear() {
+        dir.listFiles()?.forEach { it.delete() }
+    }
+
+    private fun readSegment(file: File): List<SmsLogEntry> {
+        return try {
+            BufferedReader(InputStreamReader(GZIPInputStream(file.inputStream()), Charsets.UTF_8)).use { reader ->
+                reader.lineSequence()
+                    .filter { it.isNotBlank() }
+                    .map { gson.fromJson(it, SmsLogEntry::class.java) }
+                    .onEach {
+                        // Gson leaves collections missing from the JSON null
+                        @Suppress("SENSELESS_COMPARISON")
+                        if (it.attempts == null) it.attempts = mutableListOf()
+                    }
+                    .toList()
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to read archive segment ${file.name}", e)
+            emptyList()
+        }
+    }
+
+    private fun listSegments(): List<Segment> {
+        return dir.listFiles()?.mapNotNull { file ->
+            if (!file.name.endsWith(SUFFIX)) return@mapNotNull null
+            val parts = file.name.removeSuffix(SUFFIX).split('_')
+            if (parts.size != 3) return@mapNotNull null
+            val first = parts[1].toLongOrNull() ?: return@mapNotNull null
+            val last = parts[2].toLongOrNull() ?: return@mapNotNull null
+            Segment(file, parts[0], first, last)
+        } ?: emptyList()
+    }
+
+    private fun dayOf(millis: Long): String = dayFormat.format(Date(millis))
+}
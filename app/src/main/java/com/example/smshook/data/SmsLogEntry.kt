@@ -1,5 +1,6 @@
 package com.example.smshook.data
 
+import com.example.smshook.sms.InboundSms
 import java.text.SimpleDateFormat
 import java.util.*
 
@@ -17,8 +18,14 @@ data class SmsLogEntry(
     val isTest: Boolean = false,
     var attempts: MutableList<ForwardAttempt> = mutableListOf(),
     var lastHttpStatus: Int? = null,
-    var lastDurationMs: Long? = null
+    var lastDurationMs: Long? = null,
+    val webhookId: String? = null,
+    // Stable id sent to webhooks (payload msgId and Idempotency-Key); null for old entries
+    val msgId: String? = null
 ) {
+    /** The id webhooks get for this message; derived the same way as at receipt for old entries. */
+    fun effectiveMsgId(): String = msgId ?: InboundSms.stableId(sender, message, timestamp)
+
     fun getFormattedTimestamp(): String {
         val sdf = SimpleDateFormat("MMM dd, HH:mm:ss", Locale.getDefault())
         return sdf.format(Date(timestamp))
@@ -4,8 +4,10 @@ import android.content.Context
 import android.content.SharedPreferences
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
+import com.example.smshook.fragments.ConfigurationFragment
 import com.google.gson.Gson
 import com.google.gson.reflect.TypeToken
+import kotlinx.coroutines.CompletableDeferred
 import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import kotlin.concurrent.read
@@ -14,19 +16,44 @@ import android.util.Log
 import java.io.File
 import java.io.FileWriter
 import java.io.BufferedWriter
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.Executors
 import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
 
+/**
+ * SMS forwarding log, kept in three tiers: the most recent entries in memory (hot),
+ * their rows in [SmsLogStore] plus a short tail of evicted rows (warm), and older rows
+ * rolled into compressed day segments in [SmsLogArchive] (cold), pruned by age and size.
+ * Lookups and updates reach warm rows too, so a delivery still retrying after its entry
+ * left the hot tier keeps its status and attempts.
+ *
+ * History is loaded in the background, so [getInstance] is cheap even on a cold start
+ * triggered by an incoming SMS. Entries added before loading finishes are kept and
+ * merged after the loaded history; use [awaitLoaded] before relying on older entries.
+ */
 class SmsLogManager private constructor(private val context: Context) {
     
     companion object {
         private const val PREFS_NAME = "SMS_LOG_PREFS"
         private const val KEY_SMS_LOG = "sms_log_entries"
         private const val KEY_NEXT_ID = "next_id"
-        private const val MAX_LOG_ENTRIES = 500
+        private const val KEY_ID_HIGH_WATER = "id_high_water"
+        // Ids are reserved in blocks so startup needs no store query to hand out a fresh one
+        private const val ID_BLOCK_SIZE = 1000L
+        // Evicted rows are rolled into the archive once this many have accumulated
+        private const val ARCHIVE_ROLL_ENTRIES = 200
+        private const val ARCHIVE_CHUNK_ENTRIES = 1000
+        // Unfinished rows hold the archive roll back for at most this long
+        private const val UNFINISHED_HOLD_MS = 3 * 24 * 60 * 60 * 1000L
         private const val BACKUP_FILE_NAME = "sms_log_backup.json"
         private const val AUTO_BACKUP_INTERVAL_MINUTES = 30L
+        // Group commit: dirty rows are written together after this debounce,
+        // or right away once this many rows are waiting
+        private const val FLUSH_DEBOUNCE_MS = 100L
+        private const val FLUSH_MAX_DIRTY = 64
         
         @Volatile
         private var INSTANCE: SmsLogManager? = null
@@ -41,9 +68,21 @@ class SmsLogManager private constructor(private val context: Context) {
     private val sharedPreferences: SharedPreferences = 
         context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
     private val gson = Gson()
-    private val nextId = AtomicLong(sharedPreferences.getLong(KEY_NEXT_ID, 1))
+    private val store = SmsLogStore(context)
+    private val archive = SmsLogArchive(context.filesDir)
+    // Read once; a changed hot tier size applies from the next process start
+    private val hotCapacity = ConfigurationFragment.getLogHotEntries(context)
+    private val nextId = AtomicLong(1)
+    private var idHighWater = 0L // guarded by nextId
+    // Opened by initIdCounter on ioExecutor; the first ids handed out wait for it
+    private val idsReady = CountDownLatch(1)
+
+    private val loadedLatch = CountDownLatch(1)
+    private val loadedSignal = CompletableDeferred<Unit>()
     
-    private val logEntries = mutableListOf<SmsLogEntry>()
+    // Most recent entries with an id index; statusCounts tracks them by ForwardingStatus.ordinal
+    private val logEntries = SmsLogRing(hotCapacity)
+    private val statusCounts = IntArray(ForwardingStatus.values().size)
     private val rwLock = ReentrantReadWriteLock()
     private val _smsLogLiveData = MutableLiveData<List<SmsLogEntry>>()
     val smsLogLiveData: LiveData<List<SmsLogEntry>> = _smsLogLiveData
@@ -51,63 +90,151 @@ class SmsLogManager private constructor(private val context: Context) {
     private val _statsLiveData = MutableLiveData<SmsLogStats>()
     val statsLiveData: LiveData<SmsLogStats> = _statsLiveData
     
-    private val backupExecutor: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor()
+    // Single thread for store flushes and periodic backups, so flushes never overlap
+    private val ioExecutor: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor()
     private val backupFile = File(context.filesDir, BACKUP_FILE_NAME)
+
+    // Write-behind state, guarded by rwLock's write lock
+    private val dirtyEntries = LinkedHashSet<Long>()
+    private val dirtyAttempts = LinkedHashSet<Pair<Long, Int>>()
+    // Entry ids in dirtyAttempts, so dirty checks do not scan the attempts
+    private val dirtyAttemptEntries = HashSet<Long>()
+    // Entries the running flush is writing; until it is done their rows may be stale
+    private val flushingEntries = HashSet<Long>()
+    // Entries outside the hot tier (evicted, or loaded from the store to be updated)
+    // whose changes are not written yet
+    private val evictedUnflushed = HashMap<Long, SmsLogEntry>()
+    // Bumped whenever entries are dropped from evictedUnflushed; a warm row read from the
+    // store before a bump may predate a change written since, so it is read again
+    private var warmGeneration = 0L
+    private var flushScheduled: ScheduledFuture<*>? = null
     
     init {
-        loadLogEntries()
-        updateLiveData()
+        // First tasks on ioExecutor, so every flush and archive roll runs after them
+        ioExecutor.execute {
+            initIdCounter()
+            loadLogEntries()
+            updateLiveData()
+            rollArchive()
+        }
         schedulePeriodicBackup()
     }
+
+    /** True once stored history has been merged into memory. */
+    fun isLoaded(): Boolean = loadedLatch.count == 0L
+
+    /** Suspends until stored history has been merged into memory. */
+    suspend fun awaitLoaded() {
+        loadedSignal.await()
+    }
+
+    /** Blocks for up to [timeoutMs] until history is loaded; returns whether it is. */
+    fun awaitLoaded(timeoutMs: Long): Boolean = loadedLatch.await(timeoutMs, TimeUnit.MILLISECONDS)
+
+    /** Runs on [ioExecutor], so the constructor does no disk reads; a failure here is fatal, as reused ids would overwrite rows. */
+    private fun initIdCounter() {
+        try {
+            val highWater = sharedPreferences.getLong(KEY_ID_HIGH_WATER, -1L)
+            val start = if (highWater > 0) {
+                highWater
+            } else {
+                // First start with reserved ids: one lookup of the largest stored id
+                maxOf(sharedPreferences.getLong(KEY_NEXT_ID, 1), store.maxId() + 1)
+            }
+            synchronized(nextId) {
+                nextId.set(start)
+                reserveIdsLocked(start)
+            }
+        } finally {
+            idsReady.countDown()
+        }
+    }
+
+    private fun reserveIdsLocked(from: Long) {
+        idHighWater = from + ID_BLOCK_SIZE
+        // Written through: a block lost with the process would hand its ids out again and
+        // overwrite stored rows; this runs once per block, so the cost does not matter
+        sharedPreferences.edit().putLong(KEY_ID_HIGH_WATER, idHighWater).commit()
+    }
+
+    private fun allocateId(): Long {
+        idsReady.await()
+        synchronized(nextId) {
+            val id = nextId.getAndIncrement()
+            if (id >= idHighWater) reserveIdsLocked(id + 1)
+            return id
+        }
+    }
     
+    /** Runs on [ioExecutor]; entries added meanwhile stay newest after the merge. */
     private fun loadLogEntries() {
+        val history = try {
+            migrateLegacyLog()
+            store.loadRecent(hotCapacity)
+        } catch (e: Exception) {
+            Log.e("SmsLogManager", "Error loading log entries", e)
+            emptyList()
+        }
         rwLock.write {
-            try {
-                val json = sharedPreferences.getString(KEY_SMS_LOG, null)
-                if (json != null) {
-                    val type = object : TypeToken<MutableList<SmsLogEntry>>() {}.type
-                    val loadedEntries: MutableList<SmsLogEntry> = gson.fromJson(json, type)
-                    logEntries.clear()
-                    logEntries.addAll(loadedEntries.takeLast(MAX_LOG_ENTRIES))
-                } else {
-                    // Try to load from backup if primary fails
-                    loadFromBackup()
-                }
-            } catch (e: Exception) {
-                Log.e("SmsLogManager", "Error loading log entries", e)
-                // Try backup before clearing
-                try {
-                    loadFromBackup()
-                } catch (backupError: Exception) {
-                    Log.e("SmsLogManager", "Backup also failed, starting fresh", backupError)
-                    logEntries.clear()
+            val added = logEntries.toList()
+            val evictedDirty = HashMap(evictedUnflushed)
+            clearEntriesLocked()
+            // A row updated before loading finished is taken in its updated form
+            history.forEach { row ->
+                evictedUnflushed.remove(row.id)
+                addEntryLocked(evictedDirty.remove(row.id) ?: row)
+            }
+            added.forEach { entry ->
+                val evicted = addEntryLocked(entry)
+                if (evicted != null && isDirtyLocked(evicted.id)) {
+                    evictedDirty[evicted.id] = evicted
                 }
             }
+            evictedUnflushed.putAll(evictedDirty)
         }
+        loadedLatch.countDown()
+        loadedSignal.complete(Unit)
+        Log.d("SmsLogManager", "Loaded ${history.size} log entries")
     }
-    
-    private fun saveLogEntries() {
-        rwLock.read {
+
+    /**
+     * One-time import of the JSON blob that used to live in SharedPreferences (or its
+     * file backup) into [SmsLogStore].
+     */
+    private fun migrateLegacyLog() {
+        val json = sharedPreferences.getString(KEY_SMS_LOG, null)
+        val legacy: List<SmsLogEntry>? = try {
+            val type = object : TypeToken<MutableList<SmsLogEntry>>() {}.type
+            when {
+                json != null -> gson.fromJson<MutableList<SmsLogEntry>>(json, type)
+                store.maxId() == 0L && backupFile.exists() -> loadFromBackup()
+                else -> null
+            }
+        } catch (e: Exception) {
+            Log.e("SmsLogManager", "Legacy log could not be parsed, trying backup", e)
             try {
-                val entriesToSave = logEntries.takeLast(MAX_LOG_ENTRIES)
-                val json = gson.toJson(entriesToSave)
-                
-                // Atomic save operation
-                sharedPreferences.edit()
-                    .putString(KEY_SMS_LOG, json)
-                    .putLong(KEY_NEXT_ID, nextId.get())
-                    .apply()
-                    
-                updateLiveData()
-            } catch (e: Exception) {
-                Log.e("SmsLogManager", "Error saving log entries", e)
+                loadFromBackup()
+            } catch (backupError: Exception) {
+                Log.e("SmsLogManager", "Backup also failed, starting fresh", backupError)
+                null
             }
         }
+
+        if (legacy != null) {
+            // Gson leaves missing collections null in old blobs
+            @Suppress("SENSELESS_COMPARISON")
+            legacy.forEach { if (it.attempts == null) it.attempts = mutableListOf() }
+            store.importAll(legacy)
+            Log.d("SmsLogManager", "Imported ${legacy.size} legacy log entries")
+        }
+        if (json != null) {
+            sharedPreferences.edit().remove(KEY_SMS_LOG).apply()
+        }
     }
     
     private fun updateLiveData() {
         rwLock.read {
-            val sortedEntries = logEntries.sortedByDescending { it.timestamp }.toList()
+            val sortedEntries = logEntries.toList().sortedByDescending { it.timestamp }
             _smsLogLiveData.postValue(sortedEntries)
             _statsLiveData.postValue(getStatsInternal())
         }
@@ -119,9 +246,11 @@ class SmsLogManager private constructor(private val context: Context) {
         timestamp: Long,
         subscriptionId: Int,
         webhookUrl: String?,
-        isTest: Boolean = false
+        isTest: Boolean = false,
+        webhookId: String? = null,
+        msgId: String? = null
     ): Long {
-        val id = nextId.getAndIncrement()
+        val id = allocateId()
         val entry = SmsLogEntry(
             id = id,
             sender = sender,
@@ -130,18 +259,21 @@ class SmsLogManager private constructor(private val context: Context) {
             subscriptionId = subscriptionId,
             status = ForwardingStatus.PENDING,
             webhookUrl = webhookUrl,
-            isTest = isTest
+            isTest = isTest,
+            webhookId = webhookId,
+            msgId = msgId
         )
         
         rwLock.write {
-            logEntries.add(entry)
-            // Keep only the most recent entries
-            if (logEntries.size > MAX_LOG_ENTRIES) {
-                logEntries.removeAt(0)
+            dirtyEntries.add(id)
+            // Older entries leave the hot tier; their rows stay in the store until archived
+            val evicted = addEntryLocked(entry)
+            if (evicted != null && isDirtyLocked(evicted.id)) {
+                evictedUnflushed[evicted.id] = evicted
             }
+            scheduleFlushLocked()
         }
         
-        saveLogEntries()
         return id
     }
     
@@ -150,32 +282,30 @@ class SmsLogManager private constructor(private val context: Context) {
         status: ForwardingStatus,
         errorMessage: String? = null
     ) {
-        rwLock.write {
-            val entry = logEntries.find { it.id == id }
-            entry?.let {
-                it.status = status
-                it.errorMessage = errorMessage
-                it.lastAttemptTime = System.currentTimeMillis()
-                if (status == ForwardingStatus.RETRYING) {
-                    it.retryCount++
-                }
+        updateEntry(id) {
+            setStatusLocked(it, status)
+            it.errorMessage = errorMessage
+            it.lastAttemptTime = System.currentTimeMillis()
+            if (status == ForwardingStatus.RETRYING) {
+                it.retryCount++
             }
+            dirtyEntries.add(id)
+            scheduleFlushLocked()
         }
-        saveLogEntries()
     }
 
     fun recordAttemptStart(id: Long): Int {
-        rwLock.write {
-            val entry = logEntries.find { it.id == id } ?: return -1
-            entry.attempts.add(ForwardAttempt(startedAt = System.currentTimeMillis()))
-            saveLogEntries()
-            return entry.attempts.lastIndex
-        }
+        return updateEntry(id) { entry ->
+            val attempt = ForwardAttempt(startedAt = System.currentTimeMillis())
+            entry.attempts.add(attempt)
+            markAttemptDirtyLocked(id, entry.attempts.lastIndex)
+            scheduleFlushLocked()
+            entry.attempts.lastIndex
+        } ?: -1
     }
 
     fun recordAttemptFinish(id: Long, attemptIndex: Int, httpStatus: Int?, success: Boolean, errorSnippet: String?, durationMs: Long?) {
-        rwLock.write {
-            val entry = logEntries.find { it.id == id } ?: return@write
+        updateEntry(id) { entry ->
             if (attemptIndex in entry.attempts.indices) {
                 val att = entry.attempts[attemptIndex]
                 att.finishedAt = System.currentTimeMillis()
@@ -185,14 +315,167 @@ class SmsLogManager private constructor(private val context: Context) {
                 att.durationMs = durationMs
                 entry.lastHttpStatus = httpStatus
                 entry.lastDurationMs = durationMs
+                markAttemptDirtyLocked(id, attemptIndex)
+                dirtyEntries.add(id)
+                scheduleFlushLocked()
+            }
+        }
+    }
+
+    /**
+     * Writes all pending changes to the store now and publishes one LiveData update.
+     * Blocks until done; use on shutdown and in tests.
+     */
+    fun flush() {
+        ioExecutor.submit { flushPending() }.get()
+    }
+
+    /**
+     * Runs [update] under the write lock on the hot entry with [id], else one evicted but not
+     * yet written, else its warm row from the store, which is then kept in [evictedUnflushed]
+     * until the change is flushed. Returns null if there is no such entry.
+     *
+     * Warm rows are read before the lock is taken, so hot-tier readers and writers never wait
+     * on the store; if the entry moved in the meantime, the lookup starts over.
+     */
+    private inline fun <T> updateEntry(id: Long, update: (SmsLogEntry) -> T): T? {
+        while (true) {
+            var generation = 0L
+            val cached = rwLock.read {
+                generation = warmGeneration
+                logEntries[id] ?: evictedUnflushed[id]
+            }
+            val warm = if (cached == null) loadWarm(id) ?: return null else null
+            rwLock.write {
+                val entry = logEntries[id] ?: evictedUnflushed[id]
+                    ?: warm?.takeIf { generation == warmGeneration }?.also { evictedUnflushed[id] = it }
+                if (entry != null) return update(entry)
             }
         }
-        saveLogEntries()
+    }
+
+    private fun loadWarm(id: Long): SmsLogEntry? = try {
+        store.load(id)
+    } catch (e: Exception) {
+        Log.e("SmsLogManager", "Error loading log entry $id", e)
+        null
+    }
+
+    private fun markAttemptDirtyLocked(id: Long, attemptIndex: Int) {
+        dirtyAttempts.add(id to attemptIndex)
+        dirtyAttemptEntries.add(id)
+    }
+
+    /** True while [id] has changes that are not in the store yet (queued or being written). */
+    private fun isDirtyLocked(id: Long): Boolean =
+        id in dirtyEntries || id in dirtyAttemptEntries || id in flushingEntries
+
+    private fun scheduleFlushLocked() {
+        val dirty = dirtyEntries.size + dirtyAttempts.size
+        if (dirty >= FLUSH_MAX_DIRTY) {
+            flushScheduled?.cancel(false)
+            flushScheduled = ioExecutor.schedule({ flushPending() }, 0, TimeUnit.MILLISECONDS)
+        } else if (flushScheduled == null) {
+            flushScheduled = ioExecutor.schedule({ flushPending() }, FLUSH_DEBOUNCE_MS, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    /** Runs on [ioExecutor]: snapshots dirty rows under the lock, writes them outside it. */
+    private fun flushPending() {
+        val entries = ArrayList<SmsLogEntry>()
+        val attempts = ArrayList<SmsLogStore.AttemptRow>()
+        rwLock.write {
+            flushScheduled = null
+            if (dirtyEntries.isEmpty() && dirtyAttempts.isEmpty()) return
+            val lookup = { id: Long -> logEntries[id] ?: evictedUnflushed[id] }
+            dirtyEntries.forEach { id -> lookup(id)?.let { entries.add(it.copy()) } }
+            dirtyAttempts.forEach { (id, index) ->
+                lookup(id)?.attempts?.getOrNull(index)?.let { attempts.add(SmsLogStore.AttemptRow(id, index, it.copy())) }
+            }
+            flushingEntries.addAll(dirtyEntries)
+            flushingEntries.addAll(dirtyAttemptEntries)
+            dirtyEntries.clear()
+            dirtyAttempts.clear()
+            dirtyAttemptEntries.clear()
+        }
+
+        try {
+            store.writeBatch(entries, attempts)
+        } catch (e: Exception) {
+            Log.e("SmsLogManager", "Error writing log changes", e)
+        }
+        // Dropped only now, so an update made while writing never reloads the stale row
+        rwLock.write {
+            flushingEntries.clear()
+            if (evictedUnflushed.keys.retainAll { isDirtyLocked(it) }) warmGeneration++
+        }
+        rollArchive()
+        updateLiveData()
+    }
+
+    /**
+     * Runs on [ioExecutor]: once enough rows older than the hot tier have piled up in the
+     * store, moves them into archive segments and applies the retention limits. The roll
+     * stops at the oldest delivery still in progress (up to [UNFINISHED_HOLD_MS] old),
+     * since archived rows can no longer be updated.
+     */
+    private fun rollArchive() {
+        try {
+            val hotFloor = rwLock.read {
+                listOfNotNull(logEntries.oldest()?.id, evictedUnflushed.keys.minOrNull()).minOrNull()
+            } ?: return
+            val unfinished = store.oldestUnfinishedBefore(hotFloor, System.currentTimeMillis() - UNFINISHED_HOLD_MS)
+            val floor = unfinished ?: hotFloor
+            if (store.countBefore(floor) < ARCHIVE_ROLL_ENTRIES) return
+
+            var rolled = 0
+            while (true) {
+                val rows = store.loadBefore(floor, ARCHIVE_CHUNK_ENTRIES)
+                if (rows.isEmpty()) break
+                // Rows archived before a crash between append and delete are not written twice
+                val lastArchived = archive.lastArchivedId()
+                archive.append(rows.filter { it.id > lastArchived })
+                store.deleteBefore(rows.last().id + 1)
+                rolled += rows.size
+                if (rows.size < ARCHIVE_CHUNK_ENTRIES) break
+            }
+            archive.enforceRetention(
+                ConfigurationFragment.getLogRetentionDays(context),
+                ConfigurationFragment.getLogArchiveMaxBytes(context)
+            )
+            Log.d("SmsLogManager", "Archived $rolled log entries")
+        } catch (e: Exception) {
+            Log.e("SmsLogManager", "Error archiving log entries", e)
+        }
+    }
+
+    /**
+     * Returns up to [limit] entries with timestamps in [fromMillis, toMillis] across all
+     * tiers, newest first. Archive segments are only opened as far as needed. Blocking;
+     * call off the main thread.
+     */
+    fun queryHistory(fromMillis: Long, toMillis: Long, limit: Int): List<SmsLogEntry> {
+        idsReady.await()
+        val (hot, floor) = rwLock.read {
+            val matches = ArrayList<SmsLogEntry>()
+            logEntries.forEach { if (it.timestamp in fromMillis..toMillis) matches.add(it.copy()) }
+            matches to (logEntries.oldest()?.id ?: nextId.get())
+        }
+        return ioExecutor.submit(Callable {
+            val result = ArrayList<SmsLogEntry>(hot)
+            if (result.size < limit) {
+                result.addAll(store.queryBefore(floor, fromMillis, toMillis, limit - result.size))
+            }
+            if (result.size < limit) {
+                result.addAll(archive.query(fromMillis, toMillis, limit - result.size))
+            }
+            result.distinctBy { it.id }.sortedByDescending { it.timestamp }.take(limit)
+        }).get()
     }
     
     fun getRecentSmsLogs(): List<SmsLogEntry> {
         rwLock.read {
-            return logEntries.sortedByDescending { it.timestamp }.toList()
+            return logEntries.toList().sortedByDescending { it.timestamp }
         }
     }
 
@@ -201,18 +484,40 @@ class SmsLogManager private constructor(private val context: Context) {
         updateLiveData()
     }
     
+    /** The entry with [id] from the hot tier or, failing that, the store. */
     fun getSmsLogById(id: Long): SmsLogEntry? {
         rwLock.read {
-            return logEntries.find { it.id == id }
+            (logEntries[id] ?: evictedUnflushed[id])?.let { return it }
+        }
+        return try {
+            store.load(id)
+        } catch (e: Exception) {
+            Log.e("SmsLogManager", "Error loading log entry $id", e)
+            null
         }
     }
     
     fun clearAllLogs() {
         rwLock.write {
-            logEntries.clear()
+            clearEntriesLocked()
+            dirtyEntries.clear()
+            dirtyAttempts.clear()
+            dirtyAttemptEntries.clear()
+            flushingEntries.clear()
+            evictedUnflushed.clear()
+            warmGeneration++
+        }
+        // Queued behind a flush that already took its rows, so they cannot come back;
+        // flushes scheduled later find nothing from before the clear
+        ioExecutor.execute {
+            try {
+                store.clear()
+                archive.clear()
+            } catch (e: Exception) {
+                Log.e("SmsLogManager", "Error clearing stored log entries", e)
+            }
         }
-        sharedPreferences.edit().clear().apply()
-        // Also clear backup
+        // Ids keep counting from the reserved high-water mark, so in-flight retries cannot hit a reused id
         backupFile.delete()
         updateLiveData()
     }
@@ -225,15 +530,38 @@ class SmsLogManager private constructor(private val context: Context) {
     
     private fun getStatsInternal(): SmsLogStats {
         val total = logEntries.size
-        val successful = logEntries.count { it.status == ForwardingStatus.SUCCESS }
-        val failed = logEntries.count { it.status == ForwardingStatus.FAILED }
-        val pending = logEntries.count { it.status == ForwardingStatus.PENDING || it.status == ForwardingStatus.RETRYING }
+        val successful = statusCounts[ForwardingStatus.SUCCESS.ordinal]
+        val failed = statusCounts[ForwardingStatus.FAILED.ordinal]
+        val pending = statusCounts[ForwardingStatus.PENDING.ordinal] + statusCounts[ForwardingStatus.RETRYING.ordinal]
         
         return SmsLogStats(total, successful, failed, pending)
     }
+
+    // The helpers below keep statusCounts in step with logEntries; call with the write lock held
+
+    private fun addEntryLocked(entry: SmsLogEntry): SmsLogEntry? {
+        statusCounts[entry.status.ordinal]++
+        val evicted = logEntries.add(entry)
+        evicted?.let { statusCounts[it.status.ordinal]-- }
+        return evicted
+    }
+
+    private fun setStatusLocked(entry: SmsLogEntry, status: ForwardingStatus) {
+        // Only hot entries are counted
+        if (logEntries[entry.id] === entry) {
+            statusCounts[entry.status.ordinal]--
+            statusCounts[status.ordinal]++
+        }
+        entry.status = status
+    }
+
+    private fun clearEntriesLocked() {
+        logEntries.clear()
+        statusCounts.fill(0)
+    }
     
     private fun schedulePeriodicBackup() {
-        backupExecutor.scheduleAtFixedRate({
+        ioExecutor.scheduleAtFixedRate({
             createBackup()
         }, AUTO_BACKUP_INTERVAL_MINUTES, AUTO_BACKUP_INTERVAL_MINUTES, TimeUnit.MINUTES)
     }
@@ -241,7 +569,7 @@ class SmsLogManager private constructor(private val context: Context) {
     private fun createBackup() {
         try {
             rwLock.read {
-                val json = gson.toJson(logEntries)
+                val json = gson.toJson(logEntries.toList())
                 BufferedWriter(FileWriter(backupFile)).use { writer ->
                     writer.write(json)
                 }
@@ -252,28 +580,27 @@ class SmsLogManager private constructor(private val context: Context) {
         }
     }
     
-    private fun loadFromBackup() {
-        if (backupFile.exists()) {
-            val json = backupFile.readText()
-            val type = object : TypeToken<MutableList<SmsLogEntry>>() {}.type
-            val backupEntries: MutableList<SmsLogEntry> = gson.fromJson(json, type)
-            logEntries.clear()
-            logEntries.addAll(backupEntries.takeLast(MAX_LOG_ENTRIES))
-            Log.d("SmsLogManager", "Loaded ${logEntries.size} entries from backup")
-        }
+    private fun loadFromBackup(): List<SmsLogEntry>? {
+        if (!backupFile.exists()) return null
+        val json = backupFile.readText()
+        val type = object : TypeToken<MutableList<SmsLogEntry>>() {}.type
+        val backupEntries: MutableList<SmsLogEntry> = gson.fromJson(json, type)
+        Log.d("SmsLogManager", "Loaded ${backupEntries.size} entries from backup")
+        return backupEntries
     }
     
     /**
      * Cleanup resources when the manager is no longer needed
      */
     fun cleanup() {
-        backupExecutor.shutdown()
+        ioExecutor.execute { flushPending() }
+        ioExecutor.shutdown()
         try {
-            if (!backupExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
-                backupExecutor.shutdownNow()
+            if (!ioExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                ioExecutor.shutdownNow()
             }
         } catch (e: InterruptedException) {
-            backupExecutor.shutdownNow()
+            ioExecutor.shutdownNow()
         }
     }
 }
@@ -0,0 +1,65 @@
+package com.example.smshook.data
+
+import com.example.smshook.utils.LongIntMap
+
+/**
+ * Fixed-capacity ring of the most recent [SmsLogEntry] objects with an id index, so
+ * appends, evictions and lookups by id are O(1) regardless of capacity.
+ * Not thread-safe; [SmsLogManager] guards it with its lock.
+ */
+class SmsLogRing(capacity: Int) {
+
+    private val buffer = arrayOfNulls<SmsLogEntry>(capacity)
+    private val index = LongIntMap(capacity)
+    private var head = 0 // slot of the oldest entry
+
+    var size = 0
+        private set
+
+    val capacity: Int
+        get() = buffer.size
+
+    /** Appends [entry]; returns the entry evicted to make room, if any. */
+    fun add(entry: SmsLogEntry): SmsLogEntry? {
+        val evicted: SmsLogEntry?
+        val slot: Int
+        if (size == buffer.size) {
+            slot = head
+            evicted = buffer[slot]
+            evicted?.let { index.remove(it.id) }
+            head = (head + 1) % buffer.size
+        } else {
+            slot = (head + size) % buffer.size
+            evicted = null
+            size++
+        }
+        buffer[slot] = entry
+        index.put(entry.id, slot)
+        return evicted
+    }
+
+    operator fun get(id: Long): SmsLogEntry? {
+        val slot = index.get(id)
+        return if (slot >= 0) buffer[slot] else null
+    }
+
+    /** Oldest entry, or null when empty. */
+    fun oldest(): SmsLogEntry? = if (size == 0) null else buffer[head]
+
+    inline fun forEach(action: (SmsLogEntry) -> Unit) {
+        for (i in 0 until size) action(at(i))
+    }
+
+    /** Entry at position [i], 0 being the oldest. */
+    fun at(i: Int): SmsLogEntry = buffer[(head + i) % buffer.size]!!
+
+    /** Entries oldest first. */
+    fun toList(): List<SmsLogEntry> = List(size) { at(it) }
+
+    fun clear() {
+        buffer.fill(null)
+        index.clear()
+        head = 0
+        size = 0
+    }
+}
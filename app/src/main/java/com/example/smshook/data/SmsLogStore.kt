@@ -0,0 +1,275 @@
+package com.example.smshook.data
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+
+/**
+ * SQLite persistence for [SmsLogManager]. Entries and their forward attempts live in
+ * separate tables so every mutation is a single row insert or update instead of a
+ * rewrite of the whole log.
+ *
+ * Rows older than the in-memory hot tier stay here until they are rolled into
+ * [SmsLogArchive] and removed with [deleteBefore]; rows of deliveries still in progress
+ * are not rolled, so their updates keep landing here.
+ */
+class SmsLogStore(context: Context) : SQLiteOpenHelper(context, DB_NAME, null, DB_VERSION) {
+
+    companion object {
+        private const val DB_NAME = "sms_log.db"
+        private const val DB_VERSION = 2
+
+        private const val T_ENTRY = "sms_log"
+        private const val T_ATTEMPT = "sms_attempt"
+    }
+
+    /** One attempt row to be written by [writeBatch]. */
+    data class AttemptRow(val logId: Long, val index: Int, val attempt: ForwardAttempt)
+
+    override fun onConfigure(db: SQLiteDatabase) {
+        db.enableWriteAheadLogging()
+    }
+
+    override fun onCreate(db: SQLiteDatabase) {
+        db.execSQL(
+            """
+            CREATE TABLE $T_ENTRY (
+                id INTEGER PRIMARY KEY,
+                sender TEXT NOT NULL,
+                message TEXT NOT NULL,
+                timestamp INTEGER NOT NULL,
+                subscription_id INTEGER NOT NULL,
+                status TEXT NOT NULL,
+                error_message TEXT,
+                webhook_url TEXT,
+                retry_count INTEGER NOT NULL,
+                last_attempt_time INTEGER NOT NULL,
+                is_test INTEGER NOT NULL,
+                last_http_status INTEGER,
+                last_duration_ms INTEGER,
+                webhook_id TEXT,
+                msg_id TEXT
+            )
+            """.trimIndent()
+        )
+        db.execSQL(
+            """
+            CREATE TABLE $T_ATTEMPT (
+                log_id INTEGER NOT NULL,
+                idx INTEGER NOT NULL,
+                started_at INTEGER NOT NULL,
+                finished_at INTEGER,
+                http_status INTEGER,
+                success INTEGER NOT NULL,
+                error_snippet TEXT,
+                duration_ms INTEGER,
+                PRIMARY KEY (log_id, idx)
+            )
+            """.trimIndent()
+        )
+    }
+
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE $T_ENTRY ADD COLUMN msg_id TEXT")
+        }
+    }
+
+    fun upsertAttempt(logId: Long, index: Int, attempt: ForwardAttempt) {
+        val values = ContentValues().apply {
+            put("log_id", logId)
+            put("idx", index)
+            put("started_at", attempt.startedAt)
+            put("finished_at", attempt.finishedAt)
+            put("http_status", attempt.httpStatus)
+            put("success", if (attempt.success) 1 else 0)
+            put("error_snippet", attempt.errorSnippet)
+            put("duration_ms", attempt.durationMs)
+        }
+        writableDatabase.insertWithOnConflict(T_ATTEMPT, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+    }
+
+    /**
+     * Writes a group of changes in a single transaction: full rows for [entries] (insert or
+     * replace) and the given attempt rows.
+     */
+    fun writeBatch(entries: Collection<SmsLogEntry>, attempts: Collection<AttemptRow>) {
+        if (entries.isEmpty() && attempts.isEmpty()) return
+        val db = writableDatabase
+        db.beginTransaction()
+        try {
+            entries.forEach { db.insertWithOnConflict(T_ENTRY, null, entryValues(it), SQLiteDatabase.CONFLICT_REPLACE) }
+            attempts.forEach { upsertAttempt(it.logId, it.index, it.attempt) }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    fun clear() {
+        val db = writableDatabase
+        db.delete(T_ENTRY, null, null)
+        db.delete(T_ATTEMPT, null, null)
+    }
+
+    /** Inserts [entries] (with attempts) in one transaction; used for the one-time legacy import. */
+    fun importAll(entries: List<SmsLogEntry>) {
+        val db = writableDatabase
+        db.beginTransaction()
+        try {
+            entries.forEach { entry ->
+                db.insertWithOnConflict(T_ENTRY, null, entryValues(entry), SQLiteDatabase.CONFLICT_REPLACE)
+                entry.attempts.forEachIndexed { index, attempt -> upsertAttempt(entry.id, index, attempt) }
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    fun maxId(): Long {
+        readableDatabase.rawQuery("SELECT MAX(id) FROM $T_ENTRY", null).use { c ->
+            return if (c.moveToFirst() && !c.isNull(0)) c.getLong(0) else 0L
+        }
+    }
+
+    /** Loads the [limit] most recent entries (by id) with their attempts, oldest first. */
+    fun loadRecent(limit: Int): List<SmsLogEntry> {
+        val entries = queryEntries(null, null, "id DESC", limit)
+        entries.reverse()
+        return withAttempts(entries)
+    }
+
+    /** The entry with [id] and its attempts, or null if it is not in the store. */
+    fun load(id: Long): SmsLogEntry? =
+        withAttempts(queryEntries("id = ?", arrayOf(id.toString()), "id", 1)).firstOrNull()
+
+    /** Loads up to [limit] entries with ids below [id], oldest first. */
+    fun loadBefore(id: Long, limit: Int): List<SmsLogEntry> =
+        withAttempts(queryEntries("id < ?", arrayOf(id.toString()), "id ASC", limit))
+
+    /** Entries with ids below [id] and timestamps in [fromMillis, toMillis], newest first. */
+    fun queryBefore(id: Long, fromMillis: Long, toMillis: Long, limit: Int): List<SmsLogEntry> {
+        val entries = queryEntries(
+            "id < ? AND timestamp BETWEEN ? AND ?",
+            arrayOf(id.toString(), fromMillis.toString(), toMillis.toString()),
+            "timestamp DESC",
+            limit
+        )
+        return withAttempts(entries)
+    }
+
+    fun countBefore(id: Long): Long {
+        readableDatabase.rawQuery("SELECT COUNT(*) FROM $T_ENTRY WHERE id < ?", arrayOf(id.toString())).use { c ->
+            return if (c.moveToFirst()) c.getLong(0) else 0L
+        }
+    }
+
+    /**
+     * Smallest id below [id] of an entry still PENDING or RETRYING that was received at or
+     * after [since], or null if there is none.
+     */
+    fun oldestUnfinishedBefore(id: Long, since: Long): Long? {
+        readableDatabase.rawQuery(
+            "SELECT MIN(id) FROM $T_ENTRY WHERE id < ? AND timestamp >= ? AND status IN (?, ?)",
+            arrayOf(id.toString(), since.toString(), ForwardingStatus.PENDING.name, ForwardingStatus.RETRYING.name)
+        ).use { c ->
+            return if (c.moveToFirst() && !c.isNull(0)) c.getLong(0) else null
+        }
+    }
+
+    /** Removes entries with ids below [id] and their attempts, once they are archived. */
+    fun deleteBefore(id: Long) {
+        val db = writableDatabase
+        val args = arrayOf(id.toString())
+        db.beginTransaction()
+        try {
+            db.delete(T_ENTRY, "id < ?", args)
+            db.delete(T_ATTEMPT, "log_id < ?", args)
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    private fun queryEntries(selection: String?, args: Array<String>?, orderBy: String, limit: Int): ArrayList<SmsLogEntry> {
+        val entries = ArrayList<SmsLogEntry>()
+        readableDatabase.query(T_ENTRY, null, selection, args, null, null, orderBy, limit.toString()).use { c ->
+            while (c.moveToNext()) entries.add(readEntry(c))
+        }
+        return entries
+    }
+
+    private fun <T : MutableList<SmsLogEntry>> withAttempts(entries: T): T {
+        if (entries.isEmpty()) return entries
+        val byId = entries.associateBy { it.id }
+        readableDatabase.query(
+            T_ATTEMPT, null, "log_id BETWEEN ? AND ?",
+            arrayOf(entries.minOf { it.id }.toString(), entries.maxOf { it.id }.toString()),
+            null, null, "log_id, idx"
+        ).use { c ->
+            while (c.moveToNext()) {
+                val entry = byId[c.getLong(c.getColumnIndexOrThrow("log_id"))] ?: continue
+                entry.attempts.add(readAttempt(c))
+            }
+        }
+        return entries
+    }
+
+    private fun entryValues(entry: SmsLogEntry) = ContentValues().apply {
+        put("id", entry.id)
+        put("sender", entry.sender)
+        put("message", entry.message)
+        put("timestamp", entry.timestamp)
+        put("subscription_id", entry.subscriptionId)
+        put("status", entry.status.name)
+        put("error_message", entry.errorMessage)
+        put("webhook_url", entry.webhookUrl)
+        put("retry_count", entry.retryCount)
+        put("last_attempt_time", entry.lastAttemptTime)
+        put("is_test", if (entry.isTest) 1 else 0)
+        put("last_http_status", entry.lastHttpStatus)
+        put("last_duration_ms", entry.lastDurationMs)
+        put("webhook_id", entry.webhookId)
+        put("msg_id", entry.msgId)
+    }
+
+    private fun readEntry(c: Cursor) = SmsLogEntry(
+        id = c.getLong(c.getColumnIndexOrThrow("id")),
+        sender = c.getString(c.getColumnIndexOrThrow("sender")),
+        message = c.getString(c.getColumnIndexOrThrow("message")),
+        timestamp = c.getLong(c.getColumnIndexOrThrow("timestamp")),
+        subscriptionId = c.getInt(c.getColumnIndexOrThrow("subscription_id")),
+        status = ForwardingStatus.valueOf(c.getString(c.getColumnIndexOrThrow("status"))),
+        errorMessage = c.getStringOrNull("error_message"),
+        webhookUrl = c.getStringOrNull("webhook_url"),
+        retryCount = c.getInt(c.getColumnIndexOrThrow("retry_count")),
+        lastAttemptTime = c.getLong(c.getColumnIndexOrThrow("last_attempt_time")),
+        isTest = c.getInt(c.getColumnIndexOrThrow("is_test")) != 0,
+        attempts = mutableListOf(),
+        lastHttpStatus = c.getIntOrNull("last_http_status"),
+        lastDurationMs = c.getLongOrNull("last_duration_ms"),
+        webhookId = c.getStringOrNull("webhook_id"),
+        msgId = c.getStringOrNull("msg_id")
+    )
+
+    private fun readAttempt(c: Cursor) = ForwardAttempt(
+        startedAt = c.getLong(c.getColumnIndexOrThrow("started_at")),
+        finishedAt = c.getLongOrNull("finished_at"),
+        httpStatus = c.getIntOrNull("http_status"),
+        success = c.getInt(c.getColumnIndexOrThrow("success")) != 0,
+        errorSnippet = c.getStringOrNull("error_snippet"),
+        durationMs = c.getLongOrNull("duration_ms")
+    )
+
+    private fun Cursor.getStringOrNull(column: String): String? =
+        getColumnIndexOrThrow(column).let { if (isNull(it)) null else getString(it) }
+
+    private fun Cursor.getIntOrNull(column: String): Int? =
+        getColumnIndexOrThrow(column).let { if (isNull(it)) null else getInt(it) }
+
+    private fun Cursor.getLongOrNull(column: String): Long? =
+        getColumnIndexOrThrow(column).let { if (isNull(it)) null else getLong(it) }
+}
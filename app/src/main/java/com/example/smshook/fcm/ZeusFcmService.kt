@@ -3,8 +3,11 @@ package com.example.smshook.fcm
 import android.util.Log
 import com.example.smshook.api.ZeusApi
 import com.example.smshook.api.ZeusIds
+import com.example.smshook.data.DeadLetterReason
 import com.example.smshook.logs.LogLevel
 import com.example.smshook.logs.LogManager
+import com.example.smshook.sms.DeadLetterReplayWorker
+import com.example.smshook.sms.DeadLetterReplayer
 import com.example.smshook.work.ZeusWork
 import com.google.firebase.messaging.FirebaseMessagingService
 import com.google.firebase.messaging.RemoteMessage
@@ -19,32 +22,47 @@ class ZeusFcmService : FirebaseMessagingService() {
         super.onNewToken(token)
         Log.d(TAG, "FCM Token: $token")
         
-        LogManager.addLog(LogLevel.FCM, TAG, "New FCM token received", "Token: ${token.take(20)}...")
+        LogManager.log(LogLevel.FCM, TAG, "New FCM token received") { "Token: ${token.take(20)}..." }
         
         // Send token to your server
         val deviceId = ZeusIds.deviceId(applicationContext)
         ZeusApi.registerFcm(applicationContext, deviceId, token)
         
-        LogManager.addLog(LogLevel.API, TAG, "FCM token registered with server", "Device ID: $deviceId")
+        LogManager.log(LogLevel.API, TAG, "FCM token registered with server") { "Device ID: $deviceId" }
     }
 
     override fun onMessageReceived(remoteMessage: RemoteMessage) {
         super.onMessageReceived(remoteMessage)
         
         Log.d(TAG, "FCM Message received: ${remoteMessage.data}")
-        LogManager.addLog(LogLevel.FCM, TAG, "FCM message received", "Data: ${remoteMessage.data}")
+        LogManager.log(LogLevel.FCM, TAG, "FCM message received") { "Data: ${remoteMessage.data}" }
         
         val data = remoteMessage.data
         when (data["action"]) {
             "run" -> {
                 val jobId = data["jobId"] ?: return
                 Log.d(TAG, "Enqueueing USSD job: $jobId")
-                LogManager.addLog(LogLevel.FCM, TAG, "USSD job enqueued", "Job ID: $jobId")
+                LogManager.log(LogLevel.FCM, TAG, "USSD job enqueued") { "Job ID: $jobId" }
                 ZeusWork.enqueueRunJob(applicationContext, jobId)
             }
+            "replay_dead_letters" -> {
+                // Optional filters and limits: webhookId, reason, concurrency, ratePerSecond
+                val webhookId = data["webhookId"]?.takeIf { it.isNotBlank() }
+                val reason = data["reason"]?.let { name -> DeadLetterReason.values().find { it.name.equals(name, ignoreCase = true) } }
+                LogManager.log(LogLevel.FCM, TAG, "Dead-letter replay requested") {
+                    "Webhook: ${webhookId ?: "all"}, reason: ${reason?.name ?: "any"}"
+                }
+                DeadLetterReplayWorker.enqueue(
+                    applicationContext,
+                    webhookId,
+                    reason,
+                    concurrency = data["concurrency"]?.toIntOrNull() ?: DeadLetterReplayer.DEFAULT_CONCURRENCY,
+                    ratePerSecond = data["ratePerSecond"]?.toDoubleOrNull() ?: DeadLetterReplayer.DEFAULT_RATE_PER_SECOND
+                )
+            }
             else -> {
                 Log.w(TAG, "Unknown FCM action: ${data["action"]}")
-                LogManager.addLog(LogLevel.WARN, TAG, "Unknown FCM action", "Action: ${data["action"]}")
+                LogManager.log(LogLevel.WARN, TAG, "Unknown FCM action") { "Action: ${data["action"]}" }
             }
         }
     }
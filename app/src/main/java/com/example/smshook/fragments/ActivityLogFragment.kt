@@ -18,10 +18,13 @@ import androidx.work.WorkManager
 import androidx.work.workDataOf
 import com.example.smshook.R
 import com.example.smshook.adapter.SmsLogAdapter
+import com.example.smshook.config.ForwardingConfig
+import com.example.smshook.data.DeadLetterStore
 import com.example.smshook.data.ForwardingStatus
 import com.example.smshook.data.SmsLogEntry
 import com.example.smshook.data.SmsLogManager
 import com.example.smshook.data.SmsLogStats
+import com.example.smshook.sms.DeadLetterReplayWorker
 import com.example.smshook.sms.ForwardWorker
 import androidx.work.BackoffPolicy
 import java.util.concurrent.TimeUnit
@@ -48,6 +51,7 @@ class ActivityLogFragment : Fragment() {
     // Action buttons
     private lateinit var buttonRefresh: Button
     private lateinit var buttonClearLog: Button
+    private lateinit var buttonReplayFailed: Button
 
     override fun onCreateView(
         inflater: LayoutInflater,
@@ -79,6 +83,7 @@ class ActivityLogFragment : Fragment() {
         // Action buttons
         buttonRefresh = view.findViewById(R.id.buttonRefresh)
         buttonClearLog = view.findViewById(R.id.buttonClearLog)
+        buttonReplayFailed = view.findViewById(R.id.buttonReplayFailed)
         
         // Initialize SMS log manager
         smsLogManager = SmsLogManager.getInstance(requireContext())
@@ -103,6 +108,10 @@ class ActivityLogFragment : Fragment() {
         buttonClearLog.setOnClickListener {
             showClearLogConfirmation()
         }
+
+        buttonReplayFailed.setOnClickListener {
+            showReplayConfirmation()
+        }
     }
     
     private fun performRefresh() {
@@ -111,6 +120,7 @@ class ActivityLogFragment : Fragment() {
         
         refreshJob = coroutineScope.launch {
             try {
+                smsLogManager.awaitLoaded()
                 withContext(Dispatchers.IO) {
                     // Force a refresh from data source
                     smsLogManager.getRecentSmsLogs()
@@ -137,6 +147,13 @@ class ActivityLogFragment : Fragment() {
         smsLogManager.statsLiveData.observe(viewLifecycleOwner, Observer { stats ->
             updateStatsDisplay(stats)
         })
+
+        // Observe a running dead-letter replay
+        WorkManager.getInstance(requireContext())
+            .getWorkInfosForUniqueWorkLiveData(DeadLetterReplayWorker.WORK_NAME)
+            .observe(viewLifecycleOwner, Observer { infos ->
+                updateReplayDisplay(infos.firstOrNull { !it.state.isFinished })
+            })
     }
 
     private fun updateSmsLogDisplay(smsLogs: List<SmsLogEntry>) {
@@ -181,7 +198,9 @@ class ActivityLogFragment : Fragment() {
             System.currentTimeMillis(),
             smsLogEntry.subscriptionId,
             smsLogManager.getSmsLogById(smsLogEntry.id)?.webhookUrl,
-            smsLogEntry.isTest
+            smsLogEntry.isTest,
+            // Same id as the original, so destinations that already have it are not posted again
+            msgId = smsLogEntry.effectiveMsgId()
         )
         val newEntry = smsLogManager.getSmsLogById(newId) ?: return
         enqueueWorkForEntry(newEntry, updateExisting = true)
@@ -205,6 +224,7 @@ class ActivityLogFragment : Fragment() {
                     "timestamp" to entry.timestamp,
                     "subscriptionId" to entry.subscriptionId,
                     "isTest" to entry.isTest,
+                    "msgId" to entry.effectiveMsgId(),
                     "logId" to entry.id
                 )
             )
@@ -274,6 +294,42 @@ class ActivityLogFragment : Fragment() {
         dialog.show()
     }
 
+    private fun updateReplayDisplay(running: androidx.work.WorkInfo?) {
+        if (running == null) {
+            buttonReplayFailed.text = "Replay Failed"
+            return
+        }
+        val total = running.progress.getInt(DeadLetterReplayWorker.KEY_TOTAL, 0)
+        val processed = running.progress.getInt(DeadLetterReplayWorker.KEY_PROCESSED, 0)
+        buttonReplayFailed.text = if (total > 0) "Replaying $processed/$total" else "Replaying..."
+    }
+
+    private fun showReplayConfirmation() {
+        lifecycleScope.launch {
+            val groups = withContext(Dispatchers.IO) {
+                DeadLetterStore.getInstance(requireContext()).groups()
+            }
+            if (groups.isEmpty()) {
+                Toast.makeText(requireContext(), "No failed deliveries to replay", Toast.LENGTH_SHORT).show()
+                return@launch
+            }
+            val names = ForwardingConfig.get(requireContext()).enabledWebhooks.associate { it.id to it.name }
+            val summary = groups.joinToString("\n") { group ->
+                val destination = names[group.webhookId] ?: "${group.webhookId.ifEmpty { "unknown" }} (not enabled, skipped)"
+                "$destination — ${group.reason.name.lowercase().replace('_', ' ')}: ${group.count}"
+            }
+            AlertDialog.Builder(requireContext())
+                .setTitle("Replay Failed Deliveries")
+                .setMessage("$summary\n\nReplay all ${groups.sumOf { it.count }} failed deliveries?")
+                .setPositiveButton("Replay") { _, _ ->
+                    DeadLetterReplayWorker.enqueue(requireContext())
+                    Toast.makeText(requireContext(), "Replaying failed deliveries...", Toast.LENGTH_SHORT).show()
+                }
+                .setNegativeButton("Cancel", null)
+                .show()
+        }
+    }
+
     private fun showClearLogConfirmation() {
         AlertDialog.Builder(requireContext())
             .setTitle("Clear Zeus SMS Log")
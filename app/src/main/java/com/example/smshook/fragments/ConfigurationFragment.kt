@@ -22,6 +22,7 @@ import androidx.work.WorkManager
 import androidx.work.workDataOf
 import com.example.smshook.R
 import com.example.smshook.config.ServerConfig
+import com.example.smshook.sms.DeliveryPolicy
 import com.example.smshook.sms.ForwardWorker
 import com.example.smshook.adapters.WebhookConfigAdapter
 import androidx.recyclerview.widget.LinearLayoutManager
@@ -43,9 +44,62 @@ data class WebhookConfig(
     val url: String,
     val secret: String = "",
     val enabled: Boolean = true,
-    val priority: Int = 0 // Lower number = higher priority
+    val priority: Int = 0, // Lower number = higher priority
+    val batch: WebhookBatchSettings? = null, // null = one request per SMS
+    val route: WebhookRoute? = null, // null = receives every SMS
+    val rateLimit: WebhookRateLimit? = null // null = no client-side limit
 )
 
+/**
+ * Client-side request rate for a webhook: a token bucket refilled at [requestsPerSecond]
+ * holding at most [burst] tokens. Requests over the rate wait in the local spill queue.
+ * Zero fields (from configs saved by Gson) fall back to the defaults.
+ */
+data class WebhookRateLimit(
+    val requestsPerSecond: Double = DEFAULT_REQUESTS_PER_SECOND,
+    val burst: Int = DEFAULT_BURST
+) {
+    val effectiveRequestsPerSecond: Double
+        get() = if (requestsPerSecond > 0) requestsPerSecond else DEFAULT_REQUESTS_PER_SECOND
+    val effectiveBurst: Int get() = if (burst > 0) burst else DEFAULT_BURST
+
+    companion object {
+        const val DEFAULT_REQUESTS_PER_SECOND = 20.0
+        const val DEFAULT_BURST = 20
+    }
+}
+
+/**
+ * Which messages a webhook receives. Every criterion that is set must match; within a
+ * list any one entry is enough. Unset (null or empty) criteria match everything.
+ */
+data class WebhookRoute(
+    val senders: List<String>? = null, // case-insensitive substrings of the sender
+    val keywords: List<String>? = null, // case-insensitive substrings of the body
+    val bodyRegex: String? = null, // searched anywhere in the body
+    val subscriptionIds: List<Int>? = null, // SIM subscription ids
+    val testMessages: Boolean? = null // true = only test messages, false = no test messages
+)
+
+/**
+ * Opt-in batch delivery for a webhook: up to [maxItems] messages or [maxDelayMs] of waiting
+ * are coalesced into one request. Fields may be missing (zero) in configs saved by Gson,
+ * so readers go through the effective* accessors.
+ */
+data class WebhookBatchSettings(
+    val maxItems: Int = DEFAULT_MAX_ITEMS,
+    val maxDelayMs: Long = DEFAULT_MAX_DELAY_MS,
+    val ndjson: Boolean = false // false = JSON array body
+) {
+    val effectiveMaxItems: Int get() = if (maxItems > 0) maxItems else DEFAULT_MAX_ITEMS
+    val effectiveMaxDelayMs: Long get() = if (maxDelayMs > 0) maxDelayMs else DEFAULT_MAX_DELAY_MS
+
+    companion object {
+        const val DEFAULT_MAX_ITEMS = 50
+        const val DEFAULT_MAX_DELAY_MS = 1000L
+    }
+}
+
 class ConfigurationFragment : Fragment() {
 
     private lateinit var sharedPreferences: SharedPreferences
@@ -101,6 +155,19 @@ class ConfigurationFragment : Fragment() {
         const val KEY_RULE_BODY_INCLUDES = "zeus_rule_body_includes" // CSV
         const val KEY_RULE_BODY_EXCLUDES = "zeus_rule_body_excludes" // CSV
         const val KEY_RULE_OVERRIDE_URL = "zeus_rule_override_url"
+        // Express lane (delivered first, expedited)
+        const val KEY_EXPRESS_SENDERS = "zeus_express_senders" // CSV
+        const val KEY_EXPRESS_KEYWORDS = "zeus_express_keywords" // CSV
+        const val KEY_EXPRESS_DETECT_OTP = "zeus_express_detect_otp"
+        // Delivery policy across multiple webhooks
+        const val KEY_DELIVERY_POLICY = "zeus_delivery_policy" // any | all | first_n
+        const val KEY_DELIVERY_POLICY_COUNT = "zeus_delivery_policy_count" // N for first_n
+        // SMS log retention
+        const val KEY_LOG_HOT_ENTRIES = "zeus_log_hot_entries" // entries kept in memory
+        const val KEY_LOG_RETENTION_DAYS = "zeus_log_retention_days" // archive max age
+        const val KEY_LOG_ARCHIVE_MAX_MB = "zeus_log_archive_max_mb" // archive max size on disk
+        const val KEY_RESPONSE_DRAIN_KB = "zeus_response_drain_kb" // webhook response bytes read for reuse
+        const val KEY_METERED_BATCH_FACTOR = "zeus_metered_batch_factor" // batch size/delay multiplier on metered networks, 1 = off
         private const val REQUEST_SMS_PERMISSION = 1001
         private const val ENCRYPTION_KEY = "ZeusSMSEncryptionKey2024!"
         
@@ -223,6 +290,56 @@ class ConfigurationFragment : Fragment() {
             return prefs.getLong(KEY_RETRY_BASE_SECONDS, 30L)
         }
 
+        fun getDeliveryPolicy(context: Context): DeliveryPolicy {
+            val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            return DeliveryPolicy.fromPref(prefs.getString(KEY_DELIVERY_POLICY, null))
+        }
+
+        fun getDeliveryPolicyCount(context: Context): Int {
+            val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            return prefs.getInt(KEY_DELIVERY_POLICY_COUNT, 1).coerceAtLeast(1)
+        }
+
+        fun getLogHotEntries(context: Context): Int {
+            val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            return prefs.getInt(KEY_LOG_HOT_ENTRIES, 500).coerceIn(50, 10_000)
+        }
+
+        fun getLogRetentionDays(context: Context): Int {
+            val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            return prefs.getInt(KEY_LOG_RETENTION_DAYS, 30).coerceAtLeast(1)
+        }
+
+        fun getLogArchiveMaxBytes(context: Context): Long {
+            val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            return prefs.getInt(KEY_LOG_ARCHIVE_MAX_MB, 64).coerceAtLeast(1) * 1024L * 1024L
+        }
+
+        fun getResponseDrainLimitBytes(context: Context): Long {
+            val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            return prefs.getInt(KEY_RESPONSE_DRAIN_KB, 64).coerceIn(1, 1024) * 1024L
+        }
+
+        fun getMeteredBatchFactor(context: Context): Int {
+            val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            return prefs.getInt(KEY_METERED_BATCH_FACTOR, 1).coerceIn(1, 10)
+        }
+
+        fun getExpressSenders(context: Context): String? {
+            val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            return prefs.getString(KEY_EXPRESS_SENDERS, "")
+        }
+
+        fun getExpressKeywords(context: Context): String? {
+            val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            return prefs.getString(KEY_EXPRESS_KEYWORDS, "")
+        }
+
+        fun isExpressOtpDetectionEnabled(context: Context): Boolean {
+            val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            return prefs.getBoolean(KEY_EXPRESS_DETECT_OTP, true)
+        }
+
         fun getRuleSenderContains(context: Context): List<String> {
             val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
             val raw = prefs.getString(KEY_RULE_SENDER_CONTAINS, "") ?: ""
@@ -241,6 +358,16 @@ class ConfigurationFragment : Fragment() {
             return raw.split(',').map { it.trim() }.filter { it.isNotEmpty() }
         }
 
+        /** Unparsed sender, body-includes and body-excludes CSVs, in that order; see [com.example.smshook.sms.SmsRules]. */
+        fun getRawRules(context: Context): List<String?> {
+            val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            return listOf(
+                prefs.getString(KEY_RULE_SENDER_CONTAINS, ""),
+                prefs.getString(KEY_RULE_BODY_INCLUDES, ""),
+                prefs.getString(KEY_RULE_BODY_EXCLUDES, "")
+            )
+        }
+
         fun getRuleOverrideUrl(context: Context): String? {
             val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
             return prefs.getString(KEY_RULE_OVERRIDE_URL, null)
@@ -527,12 +654,17 @@ class ConfigurationFragment : Fragment() {
         val webhookId = currentEditingWebhook?.id ?: UUID.randomUUID().toString()
         val priority = currentEditingWebhook?.priority ?: webhookAdapter.itemCount
 
-        val newWebhook = WebhookConfig(
+        // Copy when editing so settings without UI (e.g. batch mode) survive the edit
+        val newWebhook = currentEditingWebhook?.copy(
+            name = name,
+            url = url,
+            secret = secret
+        ) ?: WebhookConfig(
             id = webhookId,
             name = name,
             url = url,
             secret = secret,
-            enabled = currentEditingWebhook?.enabled ?: true,
+            enabled = true,
             priority = priority
         )
 
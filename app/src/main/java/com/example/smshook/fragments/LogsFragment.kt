@@ -34,6 +34,7 @@ import java.io.File
 import java.io.FileOutputStream
 import java.text.SimpleDateFormat
 import java.util.*
+import java.util.concurrent.atomic.AtomicBoolean
 
 class LogsFragment : Fragment(), LogManager.LogListener {
 
@@ -52,6 +53,10 @@ class LogsFragment : Fragment(), LogManager.LogListener {
 
     private val REQUEST_WRITE_EXTERNAL_STORAGE = 101
 
+    // Sequence of the next log entry to show; new entries are pulled in batches from here
+    private var logCursor = 0L
+    private val logPullPosted = AtomicBoolean(false)
+
     override fun onCreateView(
         inflater: LayoutInflater,
         container: ViewGroup?,
@@ -75,7 +80,8 @@ class LogsFragment : Fragment(), LogManager.LogListener {
         clearSmsLogsButton = view.findViewById(R.id.clearSmsLogsButton)
         
         // Set up FCM/USSD logs RecyclerView
-        logsAdapter = LogsAdapter(LogManager.getLogs().toMutableList())
+        logsAdapter = LogsAdapter(mutableListOf())
+        logCursor = 0L
         logsRecyclerView.layoutManager = LinearLayoutManager(requireContext())
         logsRecyclerView.adapter = logsAdapter
         
@@ -116,12 +122,8 @@ class LogsFragment : Fragment(), LogManager.LogListener {
     override fun onResume() {
         super.onResume()
         LogManager.addLogListener(this)
-        // Refresh logs in case new ones arrived while fragment was paused
-        logsAdapter.clearLogs()
-        logsAdapter.logs.addAll(LogManager.getLogs())
-        logsAdapter.notifyDataSetChanged()
-        logsRecyclerView.scrollToPosition(logsAdapter.itemCount - 1)
-        updateLogCount()
+        // Pick up logs that arrived while fragment was paused
+        showNewLogs()
         loadSmsLogs()
     }
 
@@ -131,11 +133,24 @@ class LogsFragment : Fragment(), LogManager.LogListener {
     }
 
     override fun onLogAdded(logEntry: LogEntry) {
-        activity?.runOnUiThread {
-            logsAdapter.addLog(logEntry)
-            logsRecyclerView.scrollToPosition(logsAdapter.itemCount - 1)
-            updateLogCount()
+        // One posted pull covers every entry logged before it runs
+        if (!logPullPosted.compareAndSet(false, true)) return
+        val host = activity
+        if (host == null) {
+            logPullPosted.set(false)
+            return
         }
+        host.runOnUiThread { showNewLogs() }
+    }
+
+    private fun showNewLogs() {
+        logPullPosted.set(false)
+        val read = LogManager.readSince(logCursor)
+        logCursor = read.next
+        if (read.entries.isEmpty()) return
+        logsAdapter.addLogs(read.entries)
+        logsRecyclerView.scrollToPosition(logsAdapter.itemCount - 1)
+        updateLogCount()
     }
 
     private fun updateLogCount() {
@@ -255,6 +270,7 @@ class LogsFragment : Fragment(), LogManager.LogListener {
                     "timestamp" to smsLogEntry.timestamp,
                     "subscriptionId" to smsLogEntry.subscriptionId,
                     "isTest" to smsLogEntry.isTest,
+                    "msgId" to smsLogEntry.effectiveMsgId(),
                     "logId" to smsLogEntry.id
                 )
             )
@@ -25,6 +25,7 @@ import java.io.File
 import java.io.FileOutputStream
 import java.text.SimpleDateFormat
 import java.util.*
+import java.util.concurrent.atomic.AtomicBoolean
 
 class UssdLogsFragment : Fragment(), LogManager.LogListener {
 
@@ -36,6 +37,10 @@ class UssdLogsFragment : Fragment(), LogManager.LogListener {
 
     private val REQUEST_WRITE_EXTERNAL_STORAGE = 101
 
+    // Sequence of the next log entry to show; new entries are pulled in batches from here
+    private var logCursor = 0L
+    private val logPullPosted = AtomicBoolean(false)
+
     override fun onCreateView(
         inflater: LayoutInflater,
         container: ViewGroup?,
@@ -54,7 +59,8 @@ class UssdLogsFragment : Fragment(), LogManager.LogListener {
         exportLogsButton = view.findViewById(R.id.exportLogsButton)
         
         // Set up RecyclerView
-        logsAdapter = LogsAdapter(LogManager.getLogs().toMutableList())
+        logsAdapter = LogsAdapter(mutableListOf())
+        logCursor = 0L
         logsRecyclerView.layoutManager = LinearLayoutManager(requireContext())
         logsRecyclerView.adapter = logsAdapter
         
@@ -80,12 +86,8 @@ class UssdLogsFragment : Fragment(), LogManager.LogListener {
     override fun onResume() {
         super.onResume()
         LogManager.addLogListener(this)
-        // Refresh logs in case new ones arrived while fragment was paused
-        logsAdapter.clearLogs()
-        logsAdapter.logs.addAll(LogManager.getLogs())
-        logsAdapter.notifyDataSetChanged()
-        logsRecyclerView.scrollToPosition(logsAdapter.itemCount - 1)
-        updateLogCount()
+        // Pick up logs that arrived while fragment was paused
+        showNewLogs()
     }
 
     override fun onPause() {
@@ -94,11 +96,24 @@ class UssdLogsFragment : Fragment(), LogManager.LogListener {
     }
 
     override fun onLogAdded(logEntry: LogEntry) {
-        activity?.runOnUiThread {
-            logsAdapter.addLog(logEntry)
-            logsRecyclerView.scrollToPosition(logsAdapter.itemCount - 1)
-            updateLogCount()
+        // One posted pull covers every entry logged before it runs
+        if (!logPullPosted.compareAndSet(false, true)) return
+        val host = activity
+        if (host == null) {
+            logPullPosted.set(false)
+            return
         }
+        host.runOnUiThread { showNewLogs() }
+    }
+
+    private fun showNewLogs() {
+        logPullPosted.set(false)
+        val read = LogManager.readSince(logCursor)
+        logCursor = read.next
+        if (read.entries.isEmpty()) return
+        logsAdapter.addLogs(read.entries)
+        logsRecyclerView.scrollToPosition(logsAdapter.itemCount - 1)
+        updateLogCount()
     }
 
     private fun updateLogCount() {
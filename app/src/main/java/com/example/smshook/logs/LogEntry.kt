@@ -10,23 +10,57 @@ data class LogEntry(
     val message: String,
     val details: String? = null
 ) {
+    /** `HH:mm:ss.SSS`, formatted only when read (rendering, export). */
     val formattedTime: String
-        get() = SimpleDateFormat("HH:mm:ss.SSS", Locale.getDefault()).format(Date(timestamp))
-}
+        get() = LogTime.format(timestamp)
 
-enum class LogLevel(val displayName: String, val color: String) {
-    DEBUG("DEBUG", "#808080"), // Gray
-    INFO("INFO", "#000000"),   // Black
-    WARN("WARN", "#FFA500"),   // Orange
-    ERROR("ERROR", "#FF0000"), // Red
-    FCM("FCM", "#4CAF50"),     // Green
-    USSD("USSD", "#2196F3"),   // Blue
-    API("API", "#9C27B0")      // Purple
+    /** One line: `[LEVEL] tag: message details`, prefixed with [formattedTime] if [withTime]. */
+    fun render(withTime: Boolean = true): String {
+        val sb = StringBuilder(tag.length + message.length + (details?.length ?: 0) + 32)
+        if (withTime) sb.append(formattedTime).append(' ')
+        sb.append('[').append(level.displayName).append("] ").append(tag).append(": ").append(message)
+        details?.let { sb.append(' ').append(it) }
+        return sb.toString()
+    }
 }
 
+/**
+ * Timestamp formatting for log rendering. Each thread keeps one formatter and the text of
+ * the last second it formatted, so a screen full of entries mostly just appends millis.
+ */
+private object LogTime {
+    private class Cache {
+        val format = SimpleDateFormat("HH:mm:ss", Locale.getDefault())
+        var second = Long.MIN_VALUE
+        var text = ""
+    }
 
+    private val cache = object : ThreadLocal<Cache>() {
+        override fun initialValue() = Cache()
+    }
 
+    fun format(timestamp: Long): String {
+        val c = cache.get()!!
+        val second = Math.floorDiv(timestamp, 1000L)
+        if (second != c.second) {
+            c.text = c.format.format(Date(second * 1000L))
+            c.second = second
+        }
+        val millis = Math.floorMod(timestamp, 1000L).toInt()
+        val sb = StringBuilder(12).append(c.text).append('.')
+        if (millis < 100) sb.append('0')
+        if (millis < 10) sb.append('0')
+        return sb.append(millis).toString()
+    }
+}
 
-
-
-
+/** [severity] orders levels for [LogManager.minLevel]; FCM, USSD and API log at info severity. */
+enum class LogLevel(val displayName: String, val color: String, val severity: Int) {
+    DEBUG("DEBUG", "#808080", 0), // Gray
+    INFO("INFO", "#000000", 1),   // Black
+    WARN("WARN", "#FFA500", 2),   // Orange
+    ERROR("ERROR", "#FF0000", 3), // Red
+    FCM("FCM", "#4CAF50", 1),     // Green
+    USSD("USSD", "#2196F3", 1),   // Blue
+    API("API", "#9C27B0", 1)      // Purple
+}
@@ -3,36 +3,65 @@ package com.example.smshook.logs
 import android.util.Log
 import java.util.concurrent.CopyOnWriteArrayList
 
+/**
+ * In-app log shown on the logs screens and exported from there. Entries live in a
+ * lock-free [LogRing], so logging from many worker threads never copies or locks the
+ * list; the logs screens follow along with [readSince] and exports take a [getLogs] snapshot.
+ *
+ * Levels below [minLevel] are dropped on entry. Callers with costly messages use the
+ * [log] overloads, whose lambdas are inlined and only run when the level is enabled;
+ * timestamps are only formatted when an entry is rendered.
+ */
 object LogManager {
-    private val logs = CopyOnWriteArrayList<LogEntry>()
+    private const val MAX_LOGS = 1024 // Limit the number of logs to prevent OOM
+    private const val SYSTEM_TAG = "ZeusAppLog"
+    private val logs = LogRing(MAX_LOGS)
     private val listeners = CopyOnWriteArrayList<LogListener>()
-    private const val MAX_LOGS = 1000 // Limit the number of logs to prevent OOM
+
+    /** Entries of lower severity are not recorded. */
+    @Volatile
+    var minLevel: LogLevel = LogLevel.INFO
 
     interface LogListener {
         fun onLogAdded(logEntry: LogEntry)
     }
 
+    fun isLoggable(level: LogLevel): Boolean = level.severity >= minLevel.severity
+
     fun addLog(level: LogLevel, tag: String, message: String, details: String? = null) {
+        if (!isLoggable(level)) return
         val logEntry = LogEntry(level = level, tag = tag, message = message, details = details)
-        if (logs.size >= MAX_LOGS) {
-            logs.removeAt(0) // Remove the oldest log
-        }
         logs.add(logEntry)
         
-        // Also log to Android system logs
+        // Also log to Android system logs; logcat stamps its own time, so the line is built once without it
+        val line = logEntry.render(withTime = false)
         when (level) {
-            LogLevel.DEBUG -> Log.d("ZeusAppLog", "${logEntry.formattedTime} [${logEntry.level.displayName}] ${logEntry.tag}: ${logEntry.message} ${logEntry.details ?: ""}")
-            LogLevel.INFO -> Log.i("ZeusAppLog", "${logEntry.formattedTime} [${logEntry.level.displayName}] ${logEntry.tag}: ${logEntry.message} ${logEntry.details ?: ""}")
-            LogLevel.WARN -> Log.w("ZeusAppLog", "${logEntry.formattedTime} [${logEntry.level.displayName}] ${logEntry.tag}: ${logEntry.message} ${logEntry.details ?: ""}")
-            LogLevel.ERROR -> Log.e("ZeusAppLog", "${logEntry.formattedTime} [${logEntry.level.displayName}] ${logEntry.tag}: ${logEntry.message} ${logEntry.details ?: ""}")
-            else -> Log.i("ZeusAppLog", "${logEntry.formattedTime} [${logEntry.level.displayName}] ${logEntry.tag}: ${logEntry.message} ${logEntry.details ?: ""}")
+            LogLevel.DEBUG -> Log.d(SYSTEM_TAG, line)
+            LogLevel.WARN -> Log.w(SYSTEM_TAG, line)
+            LogLevel.ERROR -> Log.e(SYSTEM_TAG, line)
+            else -> Log.i(SYSTEM_TAG, line)
         }
         
         listeners.forEach { it.onLogAdded(logEntry) }
     }
 
+    /** Logs [message] with [details] built only if [level] is enabled. */
+    inline fun log(level: LogLevel, tag: String, message: String, details: () -> String?) {
+        if (isLoggable(level)) addLog(level, tag, message, details())
+    }
+
+    /** Logs a message that is built only if [level] is enabled. */
+    inline fun log(level: LogLevel, tag: String, message: () -> String) {
+        if (isLoggable(level)) addLog(level, tag, message())
+    }
+
     fun getLogs(): List<LogEntry> {
-        return logs.toList()
+        return logs.snapshot()
+    }
+
+    /** Entries added from sequence [cursor] on; start with 0 for everything kept. */
+    fun readSince(cursor: Long, max: Int = MAX_LOGS): LogRing.Read {
+        return logs.readFrom(cursor, max)
     }
 
     fun clearLogs() {
@@ -0,0 +1,101 @@
+package com.example.smshook.logs
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Fixed-capacity, lock-free ring of the most recent [LogEntry] objects, written by any
+ * number of threads. Every entry gets a sequence number; [add] claims one with a single
+ * atomic increment and stores into the slot it maps to, so it is O(1) and allocates
+ * nothing. Readers never block writers: [snapshot] copies the live window and
+ * [readFrom] continues from a cursor, reporting entries that were overwritten before
+ * the reader got to them.
+ *
+ * A slot's sequence is cleared while it is rewritten and set once the entry is in
+ * place, so a reader that sees the same sequence before and after reading the entry
+ * has a consistent pair. Capacity is rounded up to a power of two.
+ */
+class LogRing(capacity: Int) {
+
+    companion object {
+        private const val UNPUBLISHED = -1L
+    }
+
+    /** Entries returned by [readFrom]; pass [next] as the cursor of the following read. */
+    data class Read(val entries: List<LogEntry>, val next: Long, val missed: Long)
+
+    val capacity: Int = Integer.highestOneBit(maxOf(capacity, 2) - 1) shl 1
+
+    private val mask = (this.capacity - 1).toLong()
+    private val entries = AtomicReferenceArray<LogEntry?>(this.capacity)
+    private val published = AtomicLongArray(this.capacity).apply {
+        for (i in 0 until length()) set(i, UNPUBLISHED)
+    }
+    private val sequence = AtomicLong()
+
+    // Sequences below this were cleared
+    @Volatile
+    private var floor = 0L
+
+    /** Sequence the next added entry will get; a cursor for reading only newer entries. */
+    val nextSequence: Long
+        get() = sequence.get()
+
+    /** Entries currently readable (not cleared, not overwritten). */
+    val size: Int
+        get() {
+            val end = sequence.get()
+            return (end - maxOf(floor, end - capacity)).toInt()
+        }
+
+    /** Appends [entry], overwriting the oldest one when full; returns its sequence. */
+    fun add(entry: LogEntry): Long {
+        val seq = sequence.getAndIncrement()
+        val slot = (seq and mask).toInt()
+        published.set(slot, UNPUBLISHED)
+        entries.set(slot, entry)
+        published.set(slot, seq)
+        return seq
+    }
+
+    /**
+     * Up to [max] entries from sequence [cursor] on, oldest first. Reading stops early at an
+     * entry that is still being written, so a later read picks it up.
+     */
+    fun readFrom(cursor: Long, max: Int = capacity): Read {
+        val end = sequence.get()
+        val start = maxOf(cursor, floor, end - capacity)
+        var missed = maxOf(0L, start - maxOf(cursor, floor))
+        val result = ArrayList<LogEntry>(minOf(max.toLong(), maxOf(0L, end - start)).toInt())
+        var seq = start
+        while (seq < end && result.size < max) {
+            val entry = get(seq)
+            if (entry != null) {
+                result.add(entry)
+            } else if (published.get((seq and mask).toInt()) > seq) {
+                // Lapped by writers while we were reading
+                missed++
+            } else {
+                break
+            }
+            seq++
+        }
+        return Read(result, seq, missed)
+    }
+
+    /** The readable entries, oldest first. */
+    fun snapshot(): List<LogEntry> = readFrom(floor).entries
+
+    /** Drops every entry added so far; sequences keep counting. */
+    fun clear() {
+        floor = sequence.get()
+    }
+
+    private fun get(seq: Long): LogEntry? {
+        val slot = (seq and mask).toInt()
+        if (published.get(slot) != seq) return null
+        val entry = entries.get(slot)
+        return if (published.get(slot) == seq) entry else null
+    }
+}
@@ -40,14 +40,18 @@ class LogsAdapter(val logs: MutableList<LogEntry>) : RecyclerView.Adapter<LogsAd
 
     override fun getItemCount(): Int = logs.size
 
-    fun addLog(logEntry: LogEntry) {
-        logs.add(logEntry)
+    /** Appends [entries] (oldest first) in one range update. */
+    fun addLogs(entries: List<LogEntry>) {
+        if (entries.isEmpty()) return
+        val start = logs.size
+        logs.addAll(entries)
+        notifyItemRangeInserted(start, entries.size)
         // Keep only the last 1000 logs
-        if (logs.size > 1000) {
-            logs.removeAt(0)
-            notifyItemRemoved(0)
+        val excess = logs.size - 1000
+        if (excess > 0) {
+            logs.subList(0, excess).clear()
+            notifyItemRangeRemoved(0, excess)
         }
-        notifyItemInserted(logs.size - 1)
     }
 
     fun clearLogs() {
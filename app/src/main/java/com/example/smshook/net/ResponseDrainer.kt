@@ -0,0 +1,54 @@
+package com.example.smshook.net
+
+import okhttp3.Response
+import okio.Buffer
+
+/**
+ * Reads a response body to its end, up to a byte limit, keeping only the first part.
+ * A body consumed to the end lets OkHttp put an HTTP/1.1 connection back in the pool;
+ * closing an unread body throws the connection away. Bodies larger than the limit are
+ * abandoned, which costs that connection but bounds the time and data spent on them.
+ */
+object ResponseDrainer {
+    const val DEFAULT_DRAIN_LIMIT_BYTES = 64L * 1024
+    const val DEFAULT_SNIPPET_BYTES = 512
+
+    private const val READ_CHUNK = 8192L
+
+    /**
+     * [snippet] is the start of the body decoded as UTF-8 (blank bodies give null);
+     * [complete] tells whether the body was read to the end.
+     */
+    data class Drained(val snippet: String?, val bytesRead: Long, val complete: Boolean)
+
+    fun drain(
+        response: Response,
+        snippetBytes: Int = DEFAULT_SNIPPET_BYTES,
+        limitBytes: Long = DEFAULT_DRAIN_LIMIT_BYTES
+    ): Drained {
+        val body = response.body ?: return Drained(null, 0, true)
+        val snippet = Buffer()
+        val chunk = Buffer()
+        var total = 0L
+        var complete = false
+        try {
+            val source = body.source()
+            while (total < limitBytes) {
+                val read = source.read(chunk, minOf(READ_CHUNK, limitBytes - total))
+                if (read == -1L) {
+                    complete = true
+                    break
+                }
+                total += read
+                val wanted = snippetBytes - snippet.size
+                if (wanted > 0) chunk.copyTo(snippet, 0, minOf(wanted, chunk.size))
+                chunk.clear()
+            }
+            if (!complete) complete = source.exhausted()
+        } catch (e: Exception) {
+            // A broken body still yields whatever snippet was read
+        }
+        val text = snippet.readUtf8().trim().takeIf { it.isNotEmpty() }
+        return Drained(text, total, complete)
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.smshook.net
+
+import android.util.Log
+import okhttp3.Call
+import okhttp3.Connection
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
+import okhttp3.EventListener
+import okhttp3.Handshake
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Process-wide HTTP transport. Every caller derives its client from [base] via
+ * `newBuilder()`, so they all share one connection pool, one dispatcher and the
+ * same interceptors; only timeouts differ per use.
+ */
+object ZeusHttp {
+    private const val TAG = "ZeusHttp"
+
+    private const val MAX_IDLE_CONNECTIONS = 8
+    private const val KEEP_ALIVE_MINUTES = 5L
+    private const val MAX_REQUESTS = 64
+    private const val MAX_REQUESTS_PER_HOST = 8
+
+    data class Stats(
+        val callsStarted: Long,
+        val connectionsAcquired: Long,
+        val connectionsOpened: Long,
+        val tlsHandshakes: Long,
+        val connectFailures: Long,
+        /** Acquisitions served by an already open (pooled or multiplexed) connection. */
+        val poolHits: Long,
+        /** Acquisitions that had to open a new connection. */
+        val poolMisses: Long
+    ) {
+        val connectionsReused: Long
+            get() = poolHits
+
+        val poolHitRate: Double
+            get() = if (poolHits + poolMisses == 0L) 0.0 else poolHits.toDouble() / (poolHits + poolMisses)
+    }
+
+    private val callsStarted = AtomicLong()
+    private val connectionsAcquired = AtomicLong()
+    private val connectionsOpened = AtomicLong()
+    private val tlsHandshakes = AtomicLong()
+    private val connectFailures = AtomicLong()
+    private val poolHits = AtomicLong()
+    private val poolMisses = AtomicLong()
+
+    // One listener per call, so an acquisition can tell whether this call had to connect
+    private class CountingListener : EventListener() {
+        private var connected = false
+
+        override fun callStart(call: Call) {
+            callsStarted.incrementAndGet()
+        }
+
+        override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+            connectionsOpened.incrementAndGet()
+            connected = true
+        }
+
+        override fun secureConnectEnd(call: Call, handshake: Handshake?) {
+            tlsHandshakes.incrementAndGet()
+        }
+
+        override fun connectFailed(
+            call: Call,
+            inetSocketAddress: InetSocketAddress,
+            proxy: Proxy,
+            protocol: Protocol?,
+            ioe: java.io.IOException
+        ) {
+            connectFailures.incrementAndGet()
+        }
+
+        override fun connectionAcquired(call: Call, connection: Connection) {
+            connectionsAcquired.incrementAndGet()
+            if (connected) poolMisses.incrementAndGet() else poolHits.incrementAndGet()
+            // A redirect or retry acquires again
+            connected = false
+        }
+    }
+
+    val base: OkHttpClient by lazy {
+        OkHttpClient.Builder()
+            .connectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .dispatcher(Dispatcher().apply {
+                maxRequests = MAX_REQUESTS
+                maxRequestsPerHost = MAX_REQUESTS_PER_HOST
+            })
+            // HTTP/2 lets concurrent calls to one host multiplex over a single connection
+            .protocols(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .retryOnConnectionFailure(true)
+            .eventListenerFactory { CountingListener() }
+            .addInterceptor { chain ->
+                val response = chain.proceed(chain.request())
+                if (!response.isSuccessful && response.code >= 500) {
+                    Log.w(TAG, "Server error detected: ${response.code} from ${chain.request().url.host}")
+                }
+                response
+            }
+            .build()
+    }
+
+    /** Client for SMS webhook delivery. */
+    val webhook: OkHttpClient by lazy {
+        base.newBuilder()
+            .connectTimeout(45, TimeUnit.SECONDS)
+            .readTimeout(60, TimeUnit.SECONDS)
+            .writeTimeout(45, TimeUnit.SECONDS)
+            .build()
+    }
+
+    /** Client for Zeus API calls (jobs, registration, tokens). */
+    val api: OkHttpClient by lazy {
+        base.newBuilder()
+            .connectTimeout(30, TimeUnit.SECONDS)
+            .readTimeout(60, TimeUnit.SECONDS)
+            .writeTimeout(30, TimeUnit.SECONDS)
+            .build()
+    }
+
+    /** Client for the realtime WebSocket; no read timeout, keep-alive pings instead. */
+    val websocket: OkHttpClient by lazy {
+        base.newBuilder()
+            .pingInterval(25, TimeUnit.SECONDS)
+            .connectTimeout(10, TimeUnit.SECONDS)
+            .readTimeout(0, TimeUnit.SECONDS)
+            .build()
+    }
+
+    fun stats(): Stats = Stats(
+        callsStarted = callsStarted.get(),
+        connectionsAcquired = connectionsAcquired.get(),
+        connectionsOpened = connectionsOpened.get(),
+        tlsHandshakes = tlsHandshakes.get(),
+        connectFailures = connectFailures.get(),
+        poolHits = poolHits.get(),
+        poolMisses = poolMisses.get()
+    )
+
+    fun idleConnectionCount(): Int = base.connectionPool.idleConnectionCount()
+
+    fun connectionCount(): Int = base.connectionPool.connectionCount()
+}
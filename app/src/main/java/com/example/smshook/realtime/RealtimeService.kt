@@ -9,13 +9,13 @@ import androidx.core.app.NotificationCompat
 import com.example.smshook.R
 import com.example.smshook.ZeusUssdActivity
 import com.example.smshook.config.ServerConfig
+import com.example.smshook.net.ZeusHttp
 import com.yourpackage.simpleussd.ussd.UssdController
 import com.google.gson.Gson
 import com.google.gson.JsonSyntaxException
 import kotlinx.coroutines.*
 import okhttp3.*
 import okio.ByteString
-import java.util.concurrent.TimeUnit
 import kotlin.math.min
 import kotlin.random.Random
 
@@ -66,11 +66,7 @@ class RealtimeService : Service() {
                 val baseWsUrl = ServerConfig.getWebSocketUrl(applicationContext)
                 val url = "$baseWsUrl?token=$token"
                 
-                val client = OkHttpClient.Builder()
-                    .pingInterval(25, TimeUnit.SECONDS)
-                    .connectTimeout(10, TimeUnit.SECONDS)
-                    .readTimeout(0, TimeUnit.SECONDS)
-                    .build()
+                val client = ZeusHttp.websocket
 
                 val req = Request.Builder().url(url).build()
                 val listener = WsListener(
@@ -3,6 +3,7 @@ package com.example.smshook.realtime
 import android.content.Context
 import android.util.Log
 import com.example.smshook.config.ServerConfig
+import com.example.smshook.net.ZeusHttp
 import com.google.gson.Gson
 import okhttp3.*
 import java.io.IOException
@@ -30,7 +31,7 @@ object ZeusTokenProvider {
     
     suspend fun getToken(context: Context): String = suspendCoroutine { continuation ->
         val deviceId = getDeviceId(context)
-        val client = OkHttpClient()
+        val client = ZeusHttp.api
         
         // Get token endpoint URL from configuration
         val tokenEndpointUrl = ServerConfig.getTokenEndpointUrl(context)
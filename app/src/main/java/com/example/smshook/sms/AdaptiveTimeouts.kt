@@ -0,0 +1,88 @@
+package com.example.smshook.sms
+
+import android.content.Context
+import com.example.smshook.data.SmsLogManager
+import com.example.smshook.fragments.WebhookConfig
+import com.example.smshook.utils.LatencyHistogram
+import okhttp3.Call
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Per-webhook call timeouts derived from observed latency: p99 × [MULTIPLIER], kept
+ * between [FLOOR_MS] and [CEILING_MS]. Until a webhook has [MIN_SAMPLES] samples the
+ * client's fixed timeouts apply. Histograms start from the attempt durations already in
+ * [SmsLogManager], added as soon as the log has loaded if the webhook was first used
+ * before that; requests that hit the adaptive limit are recorded at that limit, so
+ * a slowing endpoint pushes its own timeout up instead of failing forever.
+ *
+ * Batched requests carry many messages and are tracked separately from single posts.
+ */
+class AdaptiveTimeouts private constructor(private val context: Context) {
+
+    companion object {
+        private const val MIN_SAMPLES = 20
+        private const val PERCENTILE = 0.99
+        private const val MULTIPLIER = 3.0
+        private const val FLOOR_MS = 5_000L
+        // Matches the webhook client's read timeout, so adapting never makes calls slower to fail
+        private const val CEILING_MS = 60_000L
+
+        @Volatile
+        private var INSTANCE: AdaptiveTimeouts? = null
+
+        fun getInstance(context: Context): AdaptiveTimeouts {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: AdaptiveTimeouts(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+    }
+
+    private val histograms = ConcurrentHashMap<String, LatencyHistogram>()
+    // Single-post histograms that still need the logged history, with when they were created
+    private val unseeded = ConcurrentHashMap<String, Long>()
+
+    /** Call timeout for the next request to [config], or null to keep the client defaults. */
+    fun timeoutMs(config: WebhookConfig, batched: Boolean = false): Long? {
+        val histogram = histogramFor(config, batched)
+        if (histogram.count() < MIN_SAMPLES) return null
+        return (histogram.percentile(PERCENTILE) * MULTIPLIER).toLong().coerceIn(FLOOR_MS, CEILING_MS)
+    }
+
+    /** Applies the adaptive timeout, if any, to [call]; returns the timeout in ms or null. */
+    fun apply(call: Call, config: WebhookConfig, batched: Boolean = false): Long? {
+        val timeout = timeoutMs(config, batched) ?: return null
+        call.timeout().timeout(timeout, TimeUnit.MILLISECONDS)
+        return timeout
+    }
+
+    /** Records the latency of a request that got a response (or timed out at its limit). */
+    fun record(config: WebhookConfig, latencyMs: Long, batched: Boolean = false) {
+        histogramFor(config, batched).record(latencyMs)
+    }
+
+    private fun histogramFor(config: WebhookConfig, batched: Boolean): LatencyHistogram {
+        val key = if (batched) "${config.id}#batch" else config.id
+        val histogram = histograms[key] ?: LatencyHistogram().let { created ->
+            (histograms.putIfAbsent(key, created) ?: created).also {
+                // Logged durations of batched items include queueing time, so only single posts are seeded
+                if (it === created && !batched) unseeded[key] = System.currentTimeMillis()
+            }
+        }
+        if (unseeded.containsKey(key) && SmsLogManager.getInstance(context).isLoaded()) {
+            // Only one caller gets the entry back, so history is added once
+            unseeded.remove(key)?.let { createdAt -> seed(histogram, config.id, createdAt) }
+        }
+        return histogram
+    }
+
+    /** Adds the durations logged for [webhookId] before [createdAt]; later ones were recorded live. */
+    private fun seed(histogram: LatencyHistogram, webhookId: String, createdAt: Long) {
+        SmsLogManager.getInstance(context).getRecentSmsLogs()
+            .filter { it.webhookId == webhookId }
+            .flatMap { it.attempts }
+            .filter { it.httpStatus != null && it.durationMs != null && it.startedAt < createdAt }
+            .sortedBy { it.startedAt }
+            .forEach { histogram.record(it.durationMs!!) }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.smshook.sms
+
+import android.content.Context
+import androidx.work.Constraints
+import androidx.work.Data
+import androidx.work.ExistingWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import com.example.smshook.data.DeadLetterReason
+import com.example.smshook.data.DeadLetterStore
+import com.example.smshook.data.ForwardingStatus
+import com.example.smshook.data.SmsLogManager
+import com.example.smshook.logs.LogLevel
+import com.example.smshook.logs.LogManager
+import com.google.gson.Gson
+
+/**
+ * Runs a bulk [DeadLetterReplayer] replay in the background. Started from the activity
+ * log or by a remote command; only one replay runs at a time. Progress (`total`,
+ * `processed` and per-destination counts as JSON under `destinations`) is published as
+ * work progress while it runs and as output data when it is done.
+ *
+ * If the worker is stopped it is retried; replayed rows have already left the store, so
+ * the next run continues with the rest. Each run starts by settling rows a dead replay
+ * left claimed.
+ *
+ * The replay covers the rows that had failed when it was enqueued; the bound is looked
+ * up when the run starts, so enqueueing does no database work on the caller's thread.
+ */
+class DeadLetterReplayWorker(ctx: Context, params: WorkerParameters) : Worker(ctx, params) {
+
+    companion object {
+        const val WORK_NAME = "zeus-dead-letter-replay"
+
+        const val KEY_TOTAL = "total"
+        const val KEY_PROCESSED = "processed"
+        const val KEY_DESTINATIONS = "destinations"
+
+        private const val KEY_WEBHOOK_ID = "webhookId"
+        private const val KEY_REASON = "reason"
+        private const val KEY_MAX_LOG_ID = "maxLogId"
+        private const val KEY_ENQUEUED_AT = "enqueuedAt"
+        private const val KEY_CONCURRENCY = "concurrency"
+        private const val KEY_RATE = "ratePerSecond"
+
+        private const val PROGRESS_INTERVAL_MS = 500L
+        private val gson = Gson()
+
+        /**
+         * Replays the dead letters that exist now, optionally only those of [webhookId] and/or
+         * [reason]. Ignored while another replay is still running.
+         */
+        fun enqueue(
+            context: Context,
+            webhookId: String? = null,
+            reason: DeadLetterReason? = null,
+            concurrency: Int = DeadLetterReplayer.DEFAULT_CONCURRENCY,
+            ratePerSecond: Double = DeadLetterReplayer.DEFAULT_RATE_PER_SECOND
+        ) {
+            val constraints = Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build()
+
+            val request = OneTimeWorkRequestBuilder<DeadLetterReplayWorker>()
+                .setInputData(
+                    workDataOf(
+                        KEY_WEBHOOK_ID to (webhookId ?: ""),
+                        KEY_REASON to (reason?.name ?: ""),
+                        KEY_ENQUEUED_AT to System.currentTimeMillis(),
+                        KEY_CONCURRENCY to concurrency,
+                        KEY_RATE to ratePerSecond
+                    )
+                )
+                .setConstraints(constraints)
+                .addTag(ForwardWorker.TAG_SMS_FORWARD)
+                .build()
+
+            WorkManager.getInstance(context).enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.KEEP, request)
+        }
+
+        /** Per-destination counts from the progress or output data of a replay. */
+        fun destinations(data: Data): List<DeadLetterReplayer.DestinationReport> {
+            val json = data.getString(KEY_DESTINATIONS) ?: return emptyList()
+            return gson.fromJson(json, Array<DeadLetterReplayer.DestinationReport>::class.java)?.toList() ?: emptyList()
+        }
+    }
+
+    @Volatile
+    private var lastProgressAt = 0L
+
+    override fun doWork(): Result {
+        val store = DeadLetterStore.getInstance(applicationContext)
+        recoverClaims(store)
+        // Requests queued before enqueuedAt existed carry the bound itself
+        val maxLogId = inputData.getLong(KEY_MAX_LOG_ID, -1L).takeIf { it >= 0L }
+            ?: store.maxLogId(failedBefore = inputData.getLong(KEY_ENQUEUED_AT, System.currentTimeMillis()))
+        val reasonName = inputData.getString(KEY_REASON)
+        val settings = DeadLetterReplayer.Settings(
+            webhookId = inputData.getString(KEY_WEBHOOK_ID)?.takeIf { it.isNotEmpty() },
+            reason = DeadLetterReason.values().find { it.name == reasonName },
+            maxLogId = maxLogId,
+            concurrency = inputData.getInt(KEY_CONCURRENCY, DeadLetterReplayer.DEFAULT_CONCURRENCY),
+            ratePerSecond = inputData.getDouble(KEY_RATE, DeadLetterReplayer.DEFAULT_RATE_PER_SECOND)
+        )
+        LogManager.addLog(LogLevel.INFO, "DeadLetterReplay", "Replay started", settings.toString())
+
+        val result = DeadLetterReplayer(applicationContext).run(settings, { isStopped }) { progress ->
+            val now = System.currentTimeMillis()
+            if (now - lastProgressAt >= PROGRESS_INTERVAL_MS || progress.processed == progress.total) {
+                lastProgressAt = now
+                setProgressAsync(toData(progress))
+            }
+        }
+        if (isStopped) return Result.retry()
+
+        LogManager.addLog(
+            LogLevel.INFO,
+            "DeadLetterReplay",
+            "Replay finished: ${result.processed}/${result.total}",
+            result.destinations.joinToString("\n") {
+                "${it.webhookId}: delivered=${it.delivered} retrying=${it.retrying} deferred=${it.deferred} " +
+                    "failed=${it.failed} skipped=${it.skipped}"
+            }
+        )
+        return Result.success(toData(result))
+    }
+
+    /**
+     * Settles rows a dead replay left claimed: a row whose new entry the forwarder had already
+     * worked on is done; otherwise its unsent entry is closed and the row is replayed again.
+     */
+    private fun recoverClaims(store: DeadLetterStore) {
+        val claims = store.claims()
+        if (claims.isEmpty()) return
+        val logManager = SmsLogManager.getInstance(applicationContext)
+        for ((logId, replayLogId) in claims) {
+            val entry = if (replayLogId > 0) logManager.getSmsLogById(replayLogId) else null
+            if (entry != null && entry.status != ForwardingStatus.PENDING) {
+                store.remove(logId)
+            } else {
+                entry?.let { logManager.updateSmsStatus(it.id, ForwardingStatus.FAILED, "Replay interrupted") }
+                store.release(logId)
+            }
+        }
+    }
+
+    private fun toData(progress: DeadLetterReplayer.Progress): Data = workDataOf(
+        KEY_TOTAL to progress.total,
+        KEY_PROCESSED to progress.processed,
+        KEY_DESTINATIONS to gson.toJson(progress.destinations)
+    )
+}
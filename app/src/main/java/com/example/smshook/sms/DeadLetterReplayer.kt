@@ -0,0 +1,205 @@
+package com.example.smshook.sms
+
+import android.content.Context
+import android.util.Log
+import androidx.work.WorkManager
+import com.example.smshook.config.ForwardingConfig
+import com.example.smshook.data.DeadLetter
+import com.example.smshook.data.DeadLetterReason
+import com.example.smshook.data.DeadLetterStore
+import com.example.smshook.data.ForwardingStatus
+import com.example.smshook.data.SmsLogManager
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+
+/**
+ * Re-drives rows of the [DeadLetterStore] through [SmsForwarder], at most [Settings.concurrency]
+ * at a time and no faster than [Settings.ratePerSecond] overall; each webhook's own
+ * [WebhookRateLimiter] bucket still applies on top. Every replayed row gets a fresh log
+ * entry for its one destination and keeps its message id, so destinations that have
+ * acknowledged it meanwhile are not posted to again.
+ *
+ * Only rows up to [Settings.maxLogId] are replayed, so deliveries that fail again (and
+ * come back under a newer log id) are not picked up by the same replay. Rows whose
+ * webhook is no longer enabled are skipped and stay in the store.
+ *
+ * A row is claimed before it is replayed and removed only once [SmsForwarder] has settled
+ * or queued its delivery; if the replay dies in between, the row stays for the next run.
+ */
+class DeadLetterReplayer(context: Context) {
+
+    companion object {
+        private const val TAG = "ZeusSMS"
+        private const val PAGE_SIZE = 100
+        // Log entries of deliveries to the rule override URL carry this webhook id
+        private const val OVERRIDE_WEBHOOK_ID = "override"
+
+        const val DEFAULT_CONCURRENCY = 4
+        const val MAX_CONCURRENCY = 16
+        const val DEFAULT_RATE_PER_SECOND = 10.0
+    }
+
+    enum class Outcome { DELIVERED, RETRYING, DEFERRED, FAILED, SKIPPED }
+
+    data class Settings(
+        val webhookId: String? = null, // null = every destination
+        val reason: DeadLetterReason? = null, // null = every reason
+        val maxLogId: Long,
+        val concurrency: Int = DEFAULT_CONCURRENCY,
+        val ratePerSecond: Double = DEFAULT_RATE_PER_SECOND
+    )
+
+    /** Outcome counts of one destination so far. */
+    data class DestinationReport(
+        val webhookId: String,
+        val delivered: Int,
+        val retrying: Int,
+        val deferred: Int,
+        val failed: Int,
+        val skipped: Int
+    )
+
+    data class Progress(val total: Int, val processed: Int, val destinations: List<DestinationReport>)
+
+    private val appContext = context.applicationContext
+    private val store = DeadLetterStore.getInstance(appContext)
+    private val smsLogManager = SmsLogManager.getInstance(appContext)
+    private val forwarder = SmsForwarder(appContext)
+
+    private val counts = LinkedHashMap<String, IntArray>()
+    private var total = 0
+    private var processed = 0
+
+    /**
+     * Replays every matching row until done or [shouldStop] returns true. [onProgress] is
+     * called after each row, from the replay threads. Returns the final counts.
+     */
+    fun run(settings: Settings, shouldStop: () -> Boolean, onProgress: (Progress) -> Unit): Progress {
+        synchronized(counts) {
+            total = store.count(settings.webhookId, settings.reason, settings.maxLogId)
+        }
+        val concurrency = settings.concurrency.coerceIn(1, MAX_CONCURRENCY)
+        val intervalNanos = (TimeUnit.SECONDS.toNanos(1) / settings.ratePerSecond.coerceAtLeast(0.1)).toLong()
+        val executor = Executors.newFixedThreadPool(concurrency)
+        val permits = Semaphore(concurrency)
+        var cursor = Long.MIN_VALUE
+        var nextSlot = System.nanoTime()
+
+        try {
+            pages@ while (!shouldStop()) {
+                val page = store.page(settings.webhookId, settings.reason, cursor, settings.maxLogId, PAGE_SIZE)
+                if (page.isEmpty()) break
+                for (letter in page) {
+                    if (shouldStop()) break@pages
+                    cursor = letter.logId
+                    val wait = nextSlot - System.nanoTime()
+                    if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait)
+                    // An idle stretch does not turn into a burst afterwards
+                    nextSlot = maxOf(nextSlot, System.nanoTime()) + intervalNanos
+                    permits.acquire()
+                    executor.execute {
+                        try {
+                            val outcome = try {
+                                replay(letter)
+                            } catch (e: Exception) {
+                                Log.e(TAG, "Replay of dead letter ${letter.logId} failed", e)
+                                Outcome.FAILED
+                            }
+                            onProgress(record(letter.webhookId, outcome))
+                        } finally {
+                            permits.release()
+                        }
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown()
+            executor.awaitTermination(5, TimeUnit.MINUTES)
+        }
+        return snapshot()
+    }
+
+    private fun replay(letter: DeadLetter): Outcome {
+        val override = letter.webhookId == OVERRIDE_WEBHOOK_ID
+        val webhook = ForwardingConfig.get(appContext).enabledWebhooks.find { it.id == letter.webhookId }
+        if (if (override) letter.webhookUrl.isNullOrBlank() else webhook == null) return Outcome.SKIPPED
+        // Gone or claimed by a concurrent replay
+        if (!store.claim(letter.logId)) return Outcome.SKIPPED
+
+        val msgId = letter.msgId ?: InboundSms.stableId(letter.sender, letter.body, letter.timestamp)
+        val sms = InboundSms(
+            from = letter.sender,
+            body = letter.body,
+            timestamp = letter.timestamp,
+            subscriptionId = letter.subscriptionId,
+            isTest = letter.isTest,
+            overrideUrl = if (override) letter.webhookUrl else null,
+            msgId = msgId
+        )
+        var logId: Long? = null
+        try {
+            logId = smsLogManager.addSmsEntry(
+                sms.from, sms.body, sms.timestamp, sms.subscriptionId, webhook?.url ?: letter.webhookUrl, sms.isTest,
+                webhookId = letter.webhookId, msgId = msgId
+            )
+            store.attachReplay(letter.logId, logId)
+            val outcome = forward(sms, logId, letter.webhookId)
+            // The delivery is settled, or owned by a retry or the spill now
+            store.remove(letter.logId)
+            return outcome
+        } catch (e: Exception) {
+            logId?.let { smsLogManager.updateSmsStatus(it, ForwardingStatus.FAILED, "Replay interrupted: ${e.message}") }
+            store.release(letter.logId)
+            throw e
+        }
+    }
+
+    private fun forward(sms: InboundSms, logId: Long, webhookId: String): Outcome {
+        val result = forwarder.forward(sms, longArrayOf(logId), runAttemptCount = 0, webhookIds = arrayOf(webhookId))
+        return when (result.outcome) {
+            SmsForwarder.Outcome.SUCCESS -> Outcome.DELIVERED
+            SmsForwarder.Outcome.DEFERRED -> Outcome.DEFERRED
+            SmsForwarder.Outcome.FAILURE -> Outcome.FAILED
+            SmsForwarder.Outcome.RETRY -> {
+                WorkManager.getInstance(appContext).enqueue(
+                    ForwardWorker.buildRetryRequest(
+                        appContext,
+                        sms,
+                        result.logIds,
+                        result.webhookIds,
+                        result.requiredLogIds,
+                        attemptsSoFar = 1,
+                        initialDelaySeconds = ForwardingConfig.get(appContext).retryBaseSeconds
+                    )
+                )
+                Outcome.RETRYING
+            }
+        }
+    }
+
+    private fun record(webhookId: String, outcome: Outcome): Progress {
+        synchronized(counts) {
+            counts.getOrPut(webhookId) { IntArray(Outcome.values().size) }[outcome.ordinal]++
+            processed++
+            return snapshotLocked()
+        }
+    }
+
+    private fun snapshot(): Progress = synchronized(counts) { snapshotLocked() }
+
+    private fun snapshotLocked(): Progress = Progress(
+        total = total,
+        processed = processed,
+        destinations = counts.map { (webhookId, c) ->
+            DestinationReport(
+                webhookId,
+                delivered = c[Outcome.DELIVERED.ordinal],
+                retrying = c[Outcome.RETRYING.ordinal],
+                deferred = c[Outcome.DEFERRED.ordinal],
+                failed = c[Outcome.FAILED.ordinal],
+                skipped = c[Outcome.SKIPPED.ordinal]
+            )
+        }
+    )
+}
@@ -0,0 +1,22 @@
+package com.example.smshook.sms
+
+/**
+ * Decides when a message counts as delivered across its destinations.
+ */
+enum class DeliveryPolicy {
+    /** Delivered once any destination accepted it (the historical behaviour). */
+    ANY,
+    /** Delivered only when every enabled destination accepted it. */
+    ALL,
+    /**
+     * Delivered when N destinations accepted it: the N ranked first by [WebhookHealth] (priority
+     * adjusted for recent health) at the first attempt. That set is kept for every retry; the
+     * rest are best-effort and not retried.
+     */
+    FIRST_N;
+
+    companion object {
+        fun fromPref(value: String?): DeliveryPolicy =
+            values().firstOrNull { it.name.equals(value, ignoreCase = true) } ?: ANY
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.smshook.sms
+
+import android.content.Context
+import android.net.ConnectivityManager
+import android.net.Network
+import android.net.NetworkCapabilities
+import android.util.Log
+import com.example.smshook.fragments.WebhookConfig
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Follows the default network through a [ConnectivityManager.NetworkCallback] and gates
+ * delivery on it. While there is no network, [SmsForwarder] parks deliveries in
+ * [RateLimitSpill] and [OutboxDrainer] stops reading, instead of every message failing
+ * into its own WorkManager backoff. Once a validated network is back, the parked rows
+ * and the outboxes are drained in one go; concurrency stays bounded by the spill's and
+ * the drainers' own thread pools.
+ *
+ * On a metered network, batch-mode webhooks can be given larger batches
+ * ([batchingFor], off unless `meteredBatchFactor` is above 1).
+ */
+class DeliveryScheduler private constructor(context: Context) {
+
+    companion object {
+        private const val TAG = "ZeusSMS"
+        // Flapping networks announce several changes in a row; they are drained once
+        private const val RESUME_DEBOUNCE_MS = 500L
+        // Longest a metered batch may wait to fill up
+        private const val METERED_MAX_DELAY_MS = 30_000L
+
+        @Volatile
+        private var INSTANCE: DeliveryScheduler? = null
+
+        fun getInstance(context: Context): DeliveryScheduler {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: DeliveryScheduler(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+    }
+
+    private val appContext = context.applicationContext
+    private val scheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor()
+    // One drain loop per lane; each drainer bounds its own parallelism
+    private val drainThreads: ExecutorService = Executors.newFixedThreadPool(SmsLane.values().size)
+    private var resume: ScheduledFuture<*>? = null
+
+    /** A default network with internet access exists; deliveries are paused while false. */
+    @Volatile
+    var isOnline = true
+        private set
+
+    /** The default network has been validated as actually reaching the internet. */
+    @Volatile
+    var isValidated = true
+        private set
+
+    @Volatile
+    var isMetered = false
+        private set
+
+    private val callback = object : ConnectivityManager.NetworkCallback() {
+        override fun onAvailable(network: Network) {
+            update(connectivityManager()?.getNetworkCapabilities(network))
+        }
+
+        override fun onCapabilitiesChanged(network: Network, capabilities: NetworkCapabilities) {
+            update(capabilities)
+        }
+
+        override fun onLost(network: Network) {
+            update(null)
+        }
+    }
+
+    init {
+        val cm = connectivityManager()
+        if (cm != null) {
+            val caps = cm.getNetworkCapabilities(cm.activeNetwork)
+            isOnline = caps?.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET) == true
+            isValidated = isOnline && caps!!.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)
+            isMetered = caps != null && !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)
+            try {
+                cm.registerDefaultNetworkCallback(callback)
+            } catch (e: Exception) {
+                // Without the callback we never pause; WorkManager constraints still apply
+                Log.e(TAG, "Failed to watch network changes", e)
+                isOnline = true
+                isValidated = true
+            }
+        }
+    }
+
+    /**
+     * [config] with its batch limits multiplied by [factor] while the network is metered,
+     * so fewer, larger requests go out; unchanged otherwise or for non-batch webhooks.
+     */
+    fun batchingFor(config: WebhookConfig, factor: Int): WebhookConfig {
+        val batch = config.batch ?: return config
+        if (factor <= 1 || !isMetered) return config
+        return config.copy(
+            batch = batch.copy(
+                maxItems = batch.effectiveMaxItems * factor,
+                maxDelayMs = (batch.effectiveMaxDelayMs * factor)
+                    .coerceAtMost(METERED_MAX_DELAY_MS)
+                    .coerceAtLeast(batch.effectiveMaxDelayMs)
+            )
+        )
+    }
+
+    private fun update(caps: NetworkCapabilities?) {
+        val online = caps?.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET) == true
+        val validated = online && caps!!.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)
+        val wasOnline: Boolean
+        val wasValidated: Boolean
+        synchronized(this) {
+            wasOnline = isOnline
+            wasValidated = isValidated
+            isOnline = online
+            isValidated = validated
+            isMetered = caps != null && !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)
+        }
+        if (wasOnline && !online) {
+            Log.w(TAG, "Network lost; pausing deliveries")
+        }
+        if (validated && !wasValidated) {
+            scheduleResume()
+        }
+    }
+
+    private fun scheduleResume() {
+        synchronized(this) {
+            resume?.cancel(false)
+            resume = scheduler.schedule({ resumeDeliveries() }, RESUME_DEBOUNCE_MS, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    private fun resumeDeliveries() {
+        if (!isValidated) return
+        Log.d(TAG, "Validated network available${if (isMetered) " (metered)" else ""}; draining delivery backlog")
+        try {
+            RateLimitSpill.getInstance(appContext).resumeParked()
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to resume parked deliveries", e)
+        }
+        // Express first, so an OTP received offline goes out ahead of the rest
+        for (lane in SmsLane.values()) {
+            drainThreads.execute {
+                val outbox = SmsOutbox.getInstance(appContext, lane)
+                try {
+                    if (!outbox.hasUnread()) return@execute
+                    val result = OutboxDrainer(appContext, lane).drain { !isOnline }
+                    if (result.acquired && result.remaining) outbox.scheduleDrain()
+                } catch (e: Exception) {
+                    Log.e(TAG, "Outbox drain after reconnect failed; falling back to WorkManager", e)
+                    outbox.scheduleDrain()
+                }
+            }
+        }
+    }
+
+    private fun connectivityManager(): ConnectivityManager? =
+        appContext.getSystemService(Context.CONNECTIVITY_SERVICE) as? ConnectivityManager
+}
@@ -0,0 +1,43 @@
+package com.example.smshook.sms
+
+import java.security.MessageDigest
+
+/**
+ * A received (or test) SMS as handed from the receivers to the delivery pipeline.
+ *
+ * [msgId] is fixed when the message is received and travels with it through the outbox,
+ * retries and the log, so every attempt reaches a webhook with the same id.
+ */
+data class InboundSms(
+    val from: String,
+    val body: String,
+    val timestamp: Long,
+    val subscriptionId: Int,
+    val isTest: Boolean = false,
+    val overrideUrl: String? = null,
+    val msgId: String? = null
+) {
+    companion object {
+        /**
+         * Deterministic id: `zeus_<timestamp>_<hash>`, the hash being the first 64 bits of
+         * SHA-256 over sender, body and timestamp. A redelivered copy of an SMS gets the
+         * same id.
+         */
+        fun stableId(from: String, body: String, timestamp: Long): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+            digest.update(from.toByteArray(Charsets.UTF_8))
+            digest.update(0)
+            digest.update(body.toByteArray(Charsets.UTF_8))
+            digest.update(0)
+            digest.update(timestamp.toString().toByteArray(Charsets.UTF_8))
+            val hash = digest.digest()
+            val hex = StringBuilder(16)
+            for (i in 0 until 8) hex.append(String.format("%02x", hash[i]))
+            return "zeus_${timestamp}_$hex"
+        }
+    }
+
+    /** The id sent to webhooks; messages queued before ids were assigned get theirs derived. */
+    val messageId: String
+        get() = msgId ?: stableId(from, body, timestamp)
+}
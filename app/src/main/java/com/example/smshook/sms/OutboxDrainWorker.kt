@@ -0,0 +1,53 @@
+package com.example.smshook.sms
+
+import android.app.NotificationChannel
+import android.app.NotificationManager
+import android.content.Context
+import android.os.Build
+import androidx.core.app.NotificationCompat
+import androidx.work.ForegroundInfo
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+import com.example.smshook.R
+
+/**
+ * WorkManager entry point for draining [SmsOutbox]; the loop itself is in
+ * [OutboxDrainer]. Used whenever the in-process fast path is not available or did not
+ * finish, and as a delayed safety net after every received SMS. The lane comes from the
+ * input data; express drains run as expedited work.
+ */
+class OutboxDrainWorker(ctx: Context, params: WorkerParameters) : Worker(ctx, params) {
+
+    companion object {
+        private const val CHANNEL_ID = "zeus_sms_delivery"
+        private const val NOTIFICATION_ID = 4201
+    }
+
+    override fun doWork(): Result {
+        val lane = inputData.getString(SmsOutbox.KEY_LANE)
+            ?.let { name -> SmsLane.values().find { it.name == name } }
+            ?: SmsLane.NORMAL
+        val result = OutboxDrainer(applicationContext, lane).drain { isStopped }
+        // Stopped mid-drain, or paused by a lost network: the rescheduled work resumes from the cursor
+        return if (isStopped || (result.acquired && result.remaining)) Result.retry() else Result.success()
+    }
+
+    /** Expedited work runs as a foreground service before API 31, which needs a notification. */
+    override fun getForegroundInfo(): ForegroundInfo {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            val channel = NotificationChannel(CHANNEL_ID, "SMS delivery", NotificationManager.IMPORTANCE_LOW).apply {
+                description = "Forwarding received SMS to webhooks"
+                setShowBadge(false)
+            }
+            applicationContext.getSystemService(NotificationManager::class.java).createNotificationChannel(channel)
+        }
+        val notification = NotificationCompat.Builder(applicationContext, CHANNEL_ID)
+            .setSmallIcon(R.mipmap.ic_launcher)
+            .setContentTitle("Zeus SMS")
+            .setContentText("Forwarding SMS…")
+            .setOngoing(true)
+            .setPriority(NotificationCompat.PRIORITY_LOW)
+            .build()
+        return ForegroundInfo(NOTIFICATION_ID, notification)
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.smshook.sms
+
+import android.content.Context
+import android.util.Log
+import androidx.work.WorkManager
+import com.example.smshook.config.ForwardingConfig
+import com.example.smshook.net.ZeusHttp
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Consumes [SmsOutbox] records: makes the first delivery attempt for every record and
+ * hands messages that need a retry to a [ForwardWorker], so a failing endpoint never
+ * blocks the head of the outbox.
+ *
+ * Only one drainer may consume at a time; ownership is taken by flipping
+ * [SmsOutbox.draining], so [OutboxDrainWorker] and the in-process fast path
+ * ([SmsFastPath]) never hand the same record out twice. Records of one read chunk are
+ * forwarded concurrently, which lets batch-mode webhooks ([WebhookBatcher]) coalesce
+ * them; the cursor is committed once the whole chunk has been handled.
+ *
+ * Each [SmsLane] is drained from its own outbox on its own threads, so the express lane
+ * keeps its concurrency budget while the normal lane works through a burst.
+ *
+ * Reading stops while [DeliveryScheduler] reports no network; the scheduler drains the
+ * outboxes again once a validated network is back.
+ */
+class OutboxDrainer(context: Context, private val lane: SmsLane = SmsLane.NORMAL) {
+
+    companion object {
+        private const val TAG = "ZeusSMS"
+        private const val READ_BATCH = 32
+        private const val PARALLEL_MESSAGES = 8
+        private const val EXPRESS_PARALLEL_MESSAGES = 4
+
+        private val executors: Array<ExecutorService> = Array(SmsLane.values().size) { ordinal ->
+            Executors.newFixedThreadPool(
+                if (ordinal == SmsLane.EXPRESS.ordinal) EXPRESS_PARALLEL_MESSAGES else PARALLEL_MESSAGES
+            )
+        }
+    }
+
+    /** Outcome of [drain]; [acquired] is false when another drainer owned the outbox. */
+    data class DrainResult(val acquired: Boolean, val delivered: Int, val remaining: Boolean)
+
+    private val appContext = context.applicationContext
+    private val outbox = SmsOutbox.getInstance(appContext, lane)
+    private val executor = executors[lane.ordinal]
+    private val forwarder = SmsForwarder(appContext)
+    private val network = DeliveryScheduler.getInstance(appContext)
+
+    /**
+     * Drains until the outbox is empty or [shouldStop] returns true (checked between
+     * chunks). Returns immediately if another drainer is active; that drainer re-checks
+     * for new records before it lets go, so nothing is stranded.
+     */
+    fun drain(shouldStop: () -> Boolean): DrainResult {
+        if (!outbox.draining.compareAndSet(false, true)) {
+            return DrainResult(acquired = false, delivered = 0, remaining = false)
+        }
+        var delivered = 0
+        var owned = true
+        try {
+            while (!shouldStop() && network.isOnline) {
+                val batch = outbox.read(READ_BATCH)
+                if (batch.isEmpty()) {
+                    // Release, then look again: an append that saw the flag set before the
+                    // release is found here; one after it schedules its own drain.
+                    outbox.draining.set(false)
+                    owned = false
+                    if (!outbox.hasUnread()) break
+                    if (!outbox.draining.compareAndSet(false, true)) break
+                    owned = true
+                    continue
+                }
+
+                val futures = batch.mapNotNull { entry ->
+                    entry.sms?.let { sms -> executor.submit { deliver(sms) } }
+                }
+                futures.forEach {
+                    try {
+                        it.get()
+                    } catch (e: Exception) {
+                        Log.e(TAG, "Outbox delivery failed", e)
+                    }
+                }
+                outbox.commit(batch.last().next)
+                delivered += futures.size
+            }
+        } finally {
+            if (owned) outbox.draining.set(false)
+        }
+
+        val remaining = outbox.hasUnread()
+        Log.d(TAG, "Outbox drain (${lane.name.lowercase()}) finished, delivered=$delivered remaining=$remaining transport=${ZeusHttp.stats()}")
+        return DrainResult(acquired = true, delivered = delivered, remaining = remaining)
+    }
+
+    private fun deliver(sms: InboundSms) {
+        val result = forwarder.forward(sms, logIds = LongArray(0), runAttemptCount = 0)
+        when (result.outcome) {
+            SmsForwarder.Outcome.RETRY -> {
+                val retry = ForwardWorker.buildRetryRequest(
+                    appContext,
+                    sms,
+                    result.logIds,
+                    result.webhookIds,
+                    result.requiredLogIds,
+                    attemptsSoFar = 1,
+                    initialDelaySeconds = ForwardingConfig.get(appContext).retryBaseSeconds
+                )
+                WorkManager.getInstance(appContext).enqueue(retry)
+            }
+            else -> Unit
+        }
+    }
+}
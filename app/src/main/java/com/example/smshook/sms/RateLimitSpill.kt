@@ -0,0 +1,315 @@
+package com.example.smshook.sms
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+import android.util.Log
+import androidx.work.Constraints
+import androidx.work.ExistingWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import com.example.smshook.config.ForwardingConfig
+import com.example.smshook.fragments.WebhookConfig
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * On-disk queue of deliveries held back by [WebhookRateLimiter] (bucket empty, or the
+ * endpoint answered 429 / `Retry-After`). One row per log entry; the row keeps the
+ * message so it can be re-forwarded to that one destination once the bucket allows.
+ *
+ * An in-process loop re-drives due rows at the rate each webhook accepts; a delayed
+ * [SpillDrainWorker] covers the case where the process dies with rows queued. A row is
+ * marked in flight while it is being re-forwarded, so the two never send it twice and
+ * [SmsForwarder] leaves queued entries alone on its own retries.
+ *
+ * Deliveries that found no network are parked here too, with [PARKED] instead of a due
+ * time; [DeliveryScheduler] releases them with [resumeParked] once a validated network
+ * is back.
+ */
+class RateLimitSpill private constructor(context: Context) :
+    SQLiteOpenHelper(context, DB_NAME, null, DB_VERSION) {
+
+    companion object {
+        private const val TAG = "ZeusSMS"
+        private const val DB_NAME = "rate_spill.db"
+        private const val DB_VERSION = 1
+        private const val T_SPILL = "spill"
+
+        private const val PARALLEL_DELIVERIES = 4
+        private const val DUE_BATCH = 64
+        // Floor between drain passes while rows are waiting on their buckets
+        private const val MIN_WAKE_MS = 50L
+
+        /** `notBefore` of a delivery waiting for the network rather than for a bucket. */
+        const val PARKED = Long.MAX_VALUE
+
+        const val WORK_NAME = "zeus-sms-spill-drain"
+        private const val SAFETY_DRAIN_DELAY_SECONDS = 60L
+
+        @Volatile
+        private var INSTANCE: RateLimitSpill? = null
+
+        fun getInstance(context: Context): RateLimitSpill {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: RateLimitSpill(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+    }
+
+    private data class Row(
+        val logId: Long,
+        val webhookId: String,
+        val sms: InboundSms,
+        val attempts: Int
+    )
+
+    private val appContext = context.applicationContext
+    private val executor: ExecutorService = Executors.newFixedThreadPool(PARALLEL_DELIVERIES)
+    private val scheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor()
+    private var wakeUp: ScheduledFuture<*>? = null
+    private var wakeUpAt = Long.MAX_VALUE
+    // When the pending safety drain was enqueued; it covers every row added until it runs
+    @Volatile
+    private var safetyDrainAt = 0L
+
+    init {
+        // Rows left in flight by a dead process are queued again
+        scheduler.execute {
+            writableDatabase.execSQL("UPDATE $T_SPILL SET in_flight = 0 WHERE in_flight = 1")
+            scheduleDrain(0L)
+        }
+    }
+
+    override fun onConfigure(db: SQLiteDatabase) {
+        db.enableWriteAheadLogging()
+    }
+
+    override fun onCreate(db: SQLiteDatabase) {
+        db.execSQL(
+            """
+            CREATE TABLE $T_SPILL (
+                log_id INTEGER PRIMARY KEY,
+                webhook_id TEXT NOT NULL,
+                msg_id TEXT,
+                sender TEXT NOT NULL,
+                body TEXT NOT NULL,
+                timestamp INTEGER NOT NULL,
+                subscription_id INTEGER NOT NULL,
+                is_test INTEGER NOT NULL,
+                override_url TEXT,
+                attempts INTEGER NOT NULL,
+                not_before INTEGER NOT NULL,
+                in_flight INTEGER NOT NULL DEFAULT 0
+            )
+            """.trimIndent()
+        )
+        db.execSQL("CREATE INDEX ${T_SPILL}_due ON $T_SPILL (in_flight, not_before)")
+    }
+
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        // Only one schema version so far
+    }
+
+    /** Queues the delivery of [sms] for log entry [logId] to run no earlier than [notBefore]. */
+    fun add(sms: InboundSms, msgId: String, logId: Long, webhookId: String, attempts: Int, notBefore: Long) {
+        val values = ContentValues().apply {
+            put("log_id", logId)
+            put("webhook_id", webhookId)
+            put("msg_id", msgId)
+            put("sender", sms.from)
+            put("body", sms.body)
+            put("timestamp", sms.timestamp)
+            put("subscription_id", sms.subscriptionId)
+            put("is_test", if (sms.isTest) 1 else 0)
+            put("override_url", sms.overrideUrl)
+            put("attempts", attempts)
+            put("not_before", notBefore)
+            put("in_flight", 0)
+        }
+        writableDatabase.insertWithOnConflict(T_SPILL, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+        if (notBefore != PARKED) scheduleDrain(notBefore - System.currentTimeMillis())
+        scheduleSafetyDrain()
+    }
+
+    /** Makes every parked delivery due now and starts draining. */
+    fun resumeParked() {
+        val values = ContentValues().apply { put("not_before", System.currentTimeMillis()) }
+        val resumed = writableDatabase.update(T_SPILL, values, "not_before = ?", arrayOf(PARKED.toString()))
+        if (resumed > 0) Log.d(TAG, "Resuming $resumed delivery(ies) parked while offline")
+        scheduleDrain(0L)
+    }
+
+    /** True while [logId] waits in the queue (not while it is being re-forwarded). */
+    fun isQueued(logId: Long): Boolean {
+        readableDatabase.rawQuery(
+            "SELECT 1 FROM $T_SPILL WHERE log_id = ? AND in_flight = 0",
+            arrayOf(logId.toString())
+        ).use { return it.moveToFirst() }
+    }
+
+    fun size(): Long {
+        readableDatabase.rawQuery("SELECT COUNT(*) FROM $T_SPILL", null).use { c ->
+            return if (c.moveToFirst()) c.getLong(0) else 0L
+        }
+    }
+
+    /**
+     * Dispatches every due row whose webhook currently accepts a request and waits for
+     * them. Returns the delay until the next row could go out, or null when the queue is empty.
+     */
+    fun drainDue(): Long? {
+        val now = System.currentTimeMillis()
+        val config = ForwardingConfig.get(appContext)
+        var nextDelay: Long? = null
+        val futures = ArrayList<Future<*>>()
+        // Tokens are taken by the forwarder itself; a pass only hands out what each bucket holds
+        val budgets = HashMap<String, Int>()
+
+        for (row in loadDue(now)) {
+            val webhook = config.enabledWebhooks.find { it.id == row.webhookId }
+                ?: WebhookConfig(row.webhookId, row.webhookId, row.sms.overrideUrl.orEmpty())
+            val budget = budgets.getOrPut(row.webhookId) { WebhookRateLimiter.available(webhook) }
+            if (budget <= 0) {
+                val wait = WebhookRateLimiter.delay(webhook).coerceAtLeast(MIN_WAKE_MS)
+                nextDelay = minOf(nextDelay ?: wait, wait)
+                continue
+            }
+            budgets[row.webhookId] = budget - 1
+            if (!markInFlight(row.logId)) continue
+            futures += executor.submit { redeliver(row) }
+        }
+        futures.forEach {
+            try {
+                it.get()
+            } catch (e: Exception) {
+                Log.e(TAG, "Spilled delivery failed", e)
+            }
+        }
+
+        val earliest = earliestNotBefore() ?: return null
+        val untilEarliest = (earliest - System.currentTimeMillis()).coerceAtLeast(0L)
+        // Due rows that were held back wake us when their bucket refills, not right away
+        return if (untilEarliest == 0L && nextDelay != null) nextDelay else minOf(untilEarliest, nextDelay ?: untilEarliest)
+    }
+
+    private fun redeliver(row: Row) {
+        val forwarder = SmsForwarder(appContext)
+        try {
+            val result = forwarder.forward(row.sms, longArrayOf(row.logId), row.attempts, arrayOf(row.webhookId))
+            if (result.outcome == SmsForwarder.Outcome.RETRY) {
+                WorkManager.getInstance(appContext).enqueue(
+                    ForwardWorker.buildRetryRequest(
+                        appContext,
+                        row.sms,
+                        result.logIds,
+                        result.webhookIds,
+                        result.requiredLogIds,
+                        attemptsSoFar = row.attempts + 1,
+                        initialDelaySeconds = ForwardingConfig.get(appContext).retryBaseSeconds
+                    )
+                )
+            }
+        } finally {
+            // A delivery that was spilled again has been reset to queued and stays
+            writableDatabase.delete(T_SPILL, "log_id = ? AND in_flight = 1", arrayOf(row.logId.toString()))
+        }
+    }
+
+    private fun scheduleDrain(delayMs: Long) {
+        val delay = delayMs.coerceAtLeast(0L)
+        synchronized(this) {
+            val at = System.currentTimeMillis() + delay
+            if (wakeUp != null && wakeUpAt <= at) return
+            wakeUp?.cancel(false)
+            wakeUpAt = at
+            wakeUp = scheduler.schedule({ runDrain() }, delay, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    private fun runDrain() {
+        synchronized(this) {
+            wakeUp = null
+            wakeUpAt = Long.MAX_VALUE
+        }
+        val next = try {
+            drainDue()
+        } catch (e: Exception) {
+            Log.e(TAG, "Spill drain failed", e)
+            SAFETY_DRAIN_DELAY_SECONDS * 1000
+        }
+        if (next != null) scheduleDrain(maxOf(next, MIN_WAKE_MS))
+    }
+
+    /**
+     * Fallback for rows still queued when the process goes away. Enqueued at most once per
+     * [SAFETY_DRAIN_DELAY_SECONDS], not once per spilled delivery, so a throttled burst does
+     * not turn into a WorkManager database write per message.
+     */
+    private fun scheduleSafetyDrain() {
+        val now = System.currentTimeMillis()
+        synchronized(this) {
+            if (now - safetyDrainAt < TimeUnit.SECONDS.toMillis(SAFETY_DRAIN_DELAY_SECONDS)) return
+            safetyDrainAt = now
+        }
+        val constraints = Constraints.Builder()
+            .setRequiredNetworkType(NetworkType.CONNECTED)
+            .build()
+        val request = OneTimeWorkRequestBuilder<SpillDrainWorker>()
+            .setConstraints(constraints)
+            .setInitialDelay(SAFETY_DRAIN_DELAY_SECONDS, TimeUnit.SECONDS)
+            .addTag(ForwardWorker.TAG_SMS_FORWARD)
+            .build()
+        WorkManager.getInstance(appContext).enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.KEEP, request)
+    }
+
+    private fun markInFlight(logId: Long): Boolean {
+        val values = ContentValues().apply { put("in_flight", 1) }
+        return writableDatabase.update(T_SPILL, values, "log_id = ? AND in_flight = 0", arrayOf(logId.toString())) == 1
+    }
+
+    private fun loadDue(now: Long): List<Row> {
+        val rows = ArrayList<Row>()
+        readableDatabase.query(
+            T_SPILL, null, "in_flight = 0 AND not_before <= ?", arrayOf(now.toString()),
+            null, null, "not_before, log_id", DUE_BATCH.toString()
+        ).use { c ->
+            while (c.moveToNext()) rows += readRow(c)
+        }
+        return rows
+    }
+
+    private fun earliestNotBefore(): Long? {
+        readableDatabase.rawQuery(
+            "SELECT MIN(not_before) FROM $T_SPILL WHERE in_flight = 0 AND not_before < ?",
+            arrayOf(PARKED.toString())
+        ).use { c ->
+            return if (c.moveToFirst() && !c.isNull(0)) c.getLong(0) else null
+        }
+    }
+
+    private fun readRow(c: Cursor): Row {
+        fun col(name: String) = c.getColumnIndexOrThrow(name)
+        return Row(
+            logId = c.getLong(col("log_id")),
+            webhookId = c.getString(col("webhook_id")),
+            sms = InboundSms(
+                from = c.getString(col("sender")),
+                body = c.getString(col("body")),
+                timestamp = c.getLong(col("timestamp")),
+                subscriptionId = c.getInt(col("subscription_id")),
+                isTest = c.getInt(col("is_test")) != 0,
+                overrideUrl = if (c.isNull(col("override_url"))) null else c.getString(col("override_url")),
+                msgId = if (c.isNull(col("msg_id"))) null else c.getString(col("msg_id"))
+            ),
+            attempts = c.getInt(col("attempts"))
+        )
+    }
+}
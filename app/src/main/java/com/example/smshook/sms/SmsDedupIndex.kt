@@ -0,0 +1,143 @@
+package com.example.smshook.sms
+
+import android.content.Context
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+
+/**
+ * Process-wide index of recently received SMS fingerprints, used to drop carrier
+ * redeliveries and copies delivered to more than one receiver.
+ *
+ * The fingerprint is the first 128 bits of SHA-256 over sender, full body and PDU
+ * timestamp. Fingerprints are kept in a fixed-size, memory-mapped open-addressing table
+ * (`filesDir/sms_dedup.idx`), so they survive process death and a lookup touches only
+ * a handful of slots. Slots older than [WINDOW_MS] count as free; when a probe run is
+ * full the oldest slot in it is overwritten.
+ *
+ * [SmsReceiver] checks with [contains] and calls [record] only once the message is in the
+ * outbox, so a message that could not be stored is still accepted when it is redelivered.
+ */
+class SmsDedupIndex internal constructor(file: File) {
+
+    companion object {
+        private const val FILE_NAME = "sms_dedup.idx"
+
+        private const val MAGIC = 0x5A445550 // "ZDUP"
+        private const val VERSION = 1
+        private const val HEADER_BYTES = 16
+        private const val SLOT_COUNT = 4096 // power of two
+        private const val SLOT_BYTES = 24 // 16 bytes fingerprint + 8 bytes seen-at
+        private const val MAX_PROBE = 16
+        private const val DUPLICATE = -1
+
+        const val WINDOW_MS = 60 * 60 * 1000L
+
+        @Volatile
+        private var INSTANCE: SmsDedupIndex? = null
+
+        fun getInstance(context: Context): SmsDedupIndex {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: SmsDedupIndex(File(context.filesDir, FILE_NAME)).also { INSTANCE = it }
+            }
+        }
+    }
+
+    private val buffer: MappedByteBuffer = map(file)
+    private val digest = MessageDigest.getInstance("SHA-256")
+
+    init {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != SLOT_COUNT) {
+            reset()
+        }
+    }
+
+    /** True if the message was recorded within [WINDOW_MS]. */
+    @Synchronized
+    fun contains(sender: String, body: String, pduTimestamp: Long, now: Long = System.currentTimeMillis()): Boolean {
+        val hash = fingerprint(sender, body, pduTimestamp)
+        return probe(readLong(hash, 0), readLong(hash, 8), now) == DUPLICATE
+    }
+
+    /** Records the message; a no-op if it is already recorded within [WINDOW_MS]. */
+    @Synchronized
+    fun record(sender: String, body: String, pduTimestamp: Long, now: Long = System.currentTimeMillis()) {
+        recordIfNew(sender, body, pduTimestamp, now)
+    }
+
+    /**
+     * Records the message and returns true if it was not seen within [WINDOW_MS];
+     * returns false for a duplicate.
+     */
+    @Synchronized
+    fun recordIfNew(sender: String, body: String, pduTimestamp: Long, now: Long = System.currentTimeMillis()): Boolean {
+        val hash = fingerprint(sender, body, pduTimestamp)
+        val hi = readLong(hash, 0)
+        val lo = readLong(hash, 8)
+        val target = probe(hi, lo, now)
+        if (target == DUPLICATE) return false
+
+        val base = HEADER_BYTES + target * SLOT_BYTES
+        buffer.putLong(base, hi)
+        buffer.putLong(base + 8, lo)
+        buffer.putLong(base + 16, now)
+        return true
+    }
+
+    /** Slot to store the fingerprint in, or [DUPLICATE] if it is live already. */
+    private fun probe(hi: Long, lo: Long, now: Long): Int {
+        var free = -1
+        var oldest = -1
+        var oldestSeen = Long.MAX_VALUE
+        var slot = (hi xor lo).toInt() and (SLOT_COUNT - 1)
+        for (i in 0 until MAX_PROBE) {
+            val base = HEADER_BYTES + slot * SLOT_BYTES
+            val seenAt = buffer.getLong(base + 16)
+            val live = seenAt != 0L && now - seenAt in 0 until WINDOW_MS
+            if (live && buffer.getLong(base) == hi && buffer.getLong(base + 8) == lo) {
+                return DUPLICATE
+            }
+            if (!live && free < 0) free = slot
+            if (seenAt < oldestSeen) {
+                oldestSeen = seenAt
+                oldest = slot
+            }
+            slot = (slot + 1) and (SLOT_COUNT - 1)
+        }
+        return if (free >= 0) free else oldest
+    }
+
+    private fun fingerprint(sender: String, body: String, pduTimestamp: Long): ByteArray {
+        digest.reset()
+        digest.update(sender.toByteArray(Charsets.UTF_8))
+        digest.update(0)
+        digest.update(body.toByteArray(Charsets.UTF_8))
+        digest.update(0)
+        for (shift in 56 downTo 0 step 8) digest.update((pduTimestamp ushr shift).toByte())
+        return digest.digest()
+    }
+
+    private fun readLong(bytes: ByteArray, offset: Int): Long {
+        var value = 0L
+        for (i in 0 until 8) value = (value shl 8) or (bytes[offset + i].toLong() and 0xFF)
+        return value
+    }
+
+    private fun map(file: File): MappedByteBuffer {
+        val size = HEADER_BYTES + SLOT_COUNT.toLong() * SLOT_BYTES
+        RandomAccessFile(file, "rw").use { raf ->
+            if (raf.length() != size) raf.setLength(size)
+            // The mapping stays valid after the file is closed
+            return raf.channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+        }
+    }
+
+    private fun reset() {
+        for (i in 0 until buffer.capacity()) buffer.put(i, 0)
+        buffer.putInt(0, MAGIC)
+        buffer.putInt(4, VERSION)
+        buffer.putInt(8, SLOT_COUNT)
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.smshook.sms
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.util.Log
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * In-process first delivery attempt for newly received SMS, so an OTP does not wait for
+ * WorkManager to schedule a job. [SmsReceiver] appends the message to [SmsOutbox] first
+ * and then calls [start] with the result of `goAsync()`; the outbox is drained right away
+ * on this process's executor.
+ *
+ * Records are only committed after their attempt (or hand-off to a retry job), so if the
+ * attempt times out, fails or dies with the process, the durable drain picks them up
+ * from the cursor. [OutboxDrainer]'s ownership flag keeps the two paths from sending the
+ * same record.
+ *
+ * Every [SmsLane] has its own thread here, so an OTP does not wait for a normal-lane
+ * burst that is still being posted.
+ */
+object SmsFastPath {
+    private const val TAG = "ZeusSMS"
+
+    // Stay well inside the broadcast receiver time limit
+    private const val BUDGET_MS = 8_000L
+    // Lets the attempt still running at the deadline finish and release the outbox first
+    private const val HANDOVER_DELAY_SECONDS = 15L
+
+    private val executors = Array(SmsLane.values().size) { Executors.newSingleThreadExecutor() }
+    private val timer: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor()
+
+    fun start(context: Context, pending: BroadcastReceiver.PendingResult, lane: SmsLane = SmsLane.NORMAL) {
+        val appContext = context.applicationContext
+        val outbox = SmsOutbox.getInstance(appContext, lane)
+        if (!DeliveryScheduler.getInstance(appContext).isOnline) {
+            // WorkManager waits for connectivity, and DeliveryScheduler drains as soon as it is validated
+            outbox.scheduleDrain()
+            pending.finish()
+            return
+        }
+
+        val finished = AtomicBoolean(false)
+        val deadline = System.currentTimeMillis() + BUDGET_MS
+        fun finish() {
+            if (finished.compareAndSet(false, true)) pending.finish()
+        }
+
+        // If a POST is still running at the deadline, release the broadcast. The attempt
+        // keeps the outbox until it returns, so the WorkManager drain is enqueued with a
+        // delay; it takes over whatever is left, also if the process dies meanwhile
+        val timeout = timer.schedule({
+            if (!finished.get()) {
+                Log.w(TAG, "Fast path still busy after ${BUDGET_MS}ms; releasing the broadcast, WorkManager drain in ${HANDOVER_DELAY_SECONDS}s")
+                outbox.scheduleDrainAfter(HANDOVER_DELAY_SECONDS)
+                finish()
+            }
+        }, BUDGET_MS, TimeUnit.MILLISECONDS)
+
+        executors[lane.ordinal].execute {
+            try {
+                val result = OutboxDrainer(appContext, lane).drain { System.currentTimeMillis() >= deadline }
+                if (result.acquired && result.remaining) outbox.scheduleDrain()
+            } catch (e: Exception) {
+                Log.e(TAG, "Fast path delivery failed; falling back to WorkManager", e)
+                outbox.scheduleDrain()
+            } finally {
+                timeout.cancel(false)
+                finish()
+            }
+        }
+    }
+}
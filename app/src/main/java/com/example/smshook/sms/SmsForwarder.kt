@@ -0,0 +1,614 @@
+package com.example.smshook.sms
+
+import android.content.Context
+import okhttp3.MediaType.Companion.toMediaType
+import android.util.Log
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
+import okio.ByteString
+import android.telephony.SubscriptionManager
+import com.example.smshook.config.ForwardingConfig
+import com.example.smshook.fragments.WebhookConfig
+import com.example.smshook.data.DeadLetter
+import com.example.smshook.data.DeadLetterReason
+import com.example.smshook.data.DeadLetterStore
+import com.example.smshook.data.DeliveryLedger
+import com.example.smshook.data.ForwardingStatus
+import com.example.smshook.data.SmsLogManager
+import com.example.smshook.net.ResponseDrainer
+import com.example.smshook.net.ZeusHttp
+import java.io.InterruptedIOException
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.net.URL
+import java.net.MalformedURLException
+
+/**
+ * Posts a single SMS to the configured webhooks and records every attempt in [SmsLogManager].
+ * Shared by [ForwardWorker] (scheduled retries) and [OutboxDrainWorker] (first delivery).
+ *
+ * Each destination has its own [SmsLogEntry][com.example.smshook.data.SmsLogEntry]; destinations
+ * are posted to concurrently (at most [MAX_PARALLEL_DELIVERIES] per message) and a retry only
+ * re-sends to entries that are still pending. Whether the message as a whole counts as delivered
+ * is decided by the configured [DeliveryPolicy]. Webhooks in batch mode are reached through
+ * [WebhookBatcher], which shares one request between concurrently forwarded messages.
+ * Destinations are tried in [WebhookHealth] order, and ones whose circuit is open are
+ * skipped without a request.
+ *
+ * Every attempt for a message carries the same id (payload `msgId` and `Idempotency-Key`
+ * header), and destinations that already acknowledged that id in the [DeliveryLedger] are
+ * not posted to again.
+ *
+ * Requests respect each webhook's [WebhookRateLimiter] bucket. A delivery that would wait
+ * too long for a token, or that was answered 429, is handed to [RateLimitSpill] and
+ * re-driven from there; the run then reports [Outcome.DEFERRED] for it rather than
+ * asking its caller to retry. Deliveries that find no network (per [DeliveryScheduler])
+ * are parked there the same way, so an outage does not send every message into its own
+ * backoff; they go out together once the network is back.
+ *
+ * Destinations that fail for good are kept in the [DeadLetterStore] for bulk replay;
+ * ones closed only because the delivery policy was already satisfied are not.
+ */
+class SmsForwarder(private val context: Context) {
+
+    companion object {
+        private const val MAX_PARALLEL_DELIVERIES = 4
+        // Upper bound for a batched item to be answered once its batch has been sent
+        private const val BATCH_RESULT_TIMEOUT_MS = 180_000L
+        // How long a retry waits for SmsLogManager to finish loading history
+        private const val LOG_LOAD_TIMEOUT_MS = 10_000L
+        // Longest error text kept on a ForwardAttempt
+        private const val ERROR_SNIPPET_CHARS = 512
+        // Longest a delivery thread waits for a rate-limit token before spilling the delivery
+        private const val MAX_INLINE_RATE_WAIT_MS = 1_000L
+
+        // Shared across forwarders; the per-message bound is enforced with a semaphore
+        private val deliveryExecutor: ExecutorService = Executors.newCachedThreadPool()
+    }
+
+    /** [DEFERRED]: nothing left for the caller to retry, but some destinations wait in [RateLimitSpill]. */
+    enum class Outcome { SUCCESS, RETRY, FAILURE, DEFERRED }
+
+    /**
+     * Result of one [forward] run; [logIds] identifies the per-destination entries to pass to a
+     * retry, [webhookIds] (same order, empty if unknown) the destination of each, and
+     * [requiredLogIds] the entries the delivery policy waits for.
+     */
+    data class ForwardResult(
+        val outcome: Outcome,
+        val logIds: LongArray,
+        val webhookIds: Array<String> = emptyArray(),
+        val requiredLogIds: LongArray? = null
+    )
+
+    private data class Delivery(val config: WebhookConfig, val logId: Long, val required: Boolean)
+
+    private enum class DeliveryState { SUCCESS, RETRYABLE, PERMANENT, DEFERRED }
+
+    private val smsLogManager = SmsLogManager.getInstance(context)
+    private val client = ZeusHttp.webhook
+    private val health = WebhookHealth.getInstance(context)
+    private val timeouts = AdaptiveTimeouts.getInstance(context)
+    private val spill = RateLimitSpill.getInstance(context)
+    private val ledger = DeliveryLedger.getInstance(context)
+    private val network = DeliveryScheduler.getInstance(context)
+    private val deadLetters = DeadLetterStore.getInstance(context)
+
+    /**
+     * Forwards [sms]. A first delivery passes no [logIds]; a retry passes the entries it was
+     * given and, in [webhookIds], the destination of each, so an entry is only ever re-sent
+     * to the webhook it was created for. [requiredLogIds] carries the entries a [DeliveryPolicy.FIRST_N]
+     * message settled on at its first attempt; without it the N best-ranked entries are required.
+     */
+    fun forward(
+        sms: InboundSms,
+        logIds: LongArray,
+        runAttemptCount: Int,
+        webhookIds: Array<String> = emptyArray(),
+        requiredLogIds: LongArray? = null
+    ): ForwardResult {
+        val from = sms.from
+        val body = sms.body
+        val timestamp = sms.timestamp
+        var subId = sms.subscriptionId
+        val isTest = sms.isTest
+
+        // Get webhook URLs from SharedPreferences with validation
+        val overrideUrl = sms.overrideUrl
+        val config = ForwardingConfig.get(context)
+        val webhookConfigs = if (!overrideUrl.isNullOrBlank()) {
+            // Single override URL (backward compatibility)
+            listOf(WebhookConfig(
+                id = "override",
+                name = "Override URL",
+                url = overrideUrl,
+                secret = config.legacySecret
+            ))
+        } else {
+            // Multiple webhook URLs
+            config.enabledWebhooks
+        }
+        
+        if (webhookConfigs.isEmpty()) {
+            // For new SMS without webhook URLs, create a failed entry
+            if (logIds.isEmpty()) {
+                val failedLogId = smsLogManager.addSmsEntry(from, body, timestamp, subId, null, isTest, msgId = sms.messageId)
+                smsLogManager.updateSmsStatus(failedLogId, ForwardingStatus.FAILED, "No webhook URLs configured")
+            } else {
+                logIds.forEach { smsLogManager.updateSmsStatus(it, ForwardingStatus.FAILED, "No webhook URLs configured") }
+            }
+            return ForwardResult(Outcome.FAILURE, logIds, webhookIds)
+        }
+
+        // New messages only go to webhooks whose route matches; retries keep their destinations
+        val destinations = if (logIds.isEmpty() && overrideUrl.isNullOrBlank()) {
+            config.router.destinationsFor(sms)
+        } else {
+            webhookConfigs
+        }
+        if (destinations.isEmpty()) {
+            Log.d("ZeusSMS", "No webhook route matches SMS from $from; not forwarding")
+            // One entry records the message, so it does not vanish from the activity log
+            val unroutedLogId = smsLogManager.addSmsEntry(from, body, timestamp, subId, null, isTest, msgId = sms.messageId)
+            smsLogManager.updateSmsStatus(unroutedLogId, ForwardingStatus.FAILED, "No matching route")
+            return ForwardResult(Outcome.SUCCESS, longArrayOf(unroutedLogId))
+        }
+        
+        // Fallback: try resolving active default SMS subscription if missing
+        if (subId <= 0) {
+            try {
+                subId = SubscriptionManager.getDefaultSmsSubscriptionId()
+            } catch (_: Throwable) { /* ignore */ }
+        }
+
+        // Retries look up their existing entries, which may not be loaded yet after a cold start
+        if (logIds.isNotEmpty() && !smsLogManager.awaitLoaded(LOG_LOAD_TIMEOUT_MS)) {
+            Log.w("ZeusSMS", "SMS log still loading; retrying later")
+            return ForwardResult(Outcome.RETRY, logIds, webhookIds)
+        }
+
+        // The id fixed at receipt; retries from the log reuse the one stored with their entries
+        val msgId = sms.msgId
+            ?: logIds.asList().firstNotNullOfOrNull { smsLogManager.getSmsLogById(it)?.msgId }
+            ?: sms.messageId
+
+        val policy = config.deliveryPolicy
+        val deliveries = resolveDeliveries(
+            sms, msgId, subId, logIds, webhookIds, destinations, policy, config.deliveryPolicyCount, requiredLogIds
+        )
+        if (deliveries.isEmpty()) {
+            Log.w("ZeusSMS", "No destination left for log entries ${logIds.joinToString()}; not retrying")
+            return ForwardResult(Outcome.SUCCESS, logIds, webhookIds)
+        }
+
+        // Compose payload to match other SMS forwarder format
+        val payload = WebhookPayloadEncoder.default.encode(msgId, from, body, timestamp, subId, isTest)
+
+        // Only destinations that have not reached a final state are (re-)sent; spilled ones wait their turn
+        val pending = deliveries.filter { isPending(it.logId) && !spill.isQueued(it.logId) }
+        val states = HashMap<Long, DeliveryState>()
+        if (pending.isNotEmpty()) {
+            val permits = Semaphore(MAX_PARALLEL_DELIVERIES)
+            val futures = pending.map { delivery ->
+                permits.acquire()
+                delivery to deliveryExecutor.submit(Callable {
+                    try {
+                        deliverTo(delivery, sms, msgId, payload, runAttemptCount)
+                    } finally {
+                        permits.release()
+                    }
+                })
+            }
+            for ((delivery, future) in futures) {
+                states[delivery.logId] = try {
+                    future.get()
+                } catch (e: Exception) {
+                    Log.e("ZeusSMS", "Delivery to ${delivery.config.name} crashed", e)
+                    DeliveryState.RETRYABLE
+                }
+            }
+        }
+
+        fun stateOf(delivery: Delivery): DeliveryState = states[delivery.logId] ?: when (smsLogManager.getSmsLogById(delivery.logId)?.status) {
+            ForwardingStatus.SUCCESS -> DeliveryState.SUCCESS
+            ForwardingStatus.FAILED -> DeliveryState.PERMANENT
+            else -> if (spill.isQueued(delivery.logId)) DeliveryState.DEFERRED else DeliveryState.RETRYABLE
+        }
+
+        val required = deliveries.filter { it.required }
+        val satisfied = when (policy) {
+            DeliveryPolicy.ANY -> deliveries.any { stateOf(it) == DeliveryState.SUCCESS }
+            DeliveryPolicy.ALL, DeliveryPolicy.FIRST_N -> required.all { stateOf(it) == DeliveryState.SUCCESS }
+        }
+        val retryable = deliveries.filter { it.required && stateOf(it) == DeliveryState.RETRYABLE }
+        // Spilled deliveries belong to RateLimitSpill now and are never closed from here
+        val deferred = deliveries.filter { stateOf(it) == DeliveryState.DEFERRED }
+        val closable = deliveries - deferred.toSet()
+        val allIds = deliveries.map { it.logId }.toLongArray()
+        val allWebhookIds = deliveries.map { it.config.id }.toTypedArray()
+        val requiredIds = required.map { it.logId }.toLongArray()
+
+        return when {
+            satisfied -> {
+                // Whatever is still pending is no longer needed for this message
+                closePending(closable, sms, msgId, "Not retried: delivery policy ${policy.name.lowercase()} satisfied", deadLetter = false)
+                ForwardResult(Outcome.SUCCESS, allIds, allWebhookIds, requiredIds)
+            }
+            retryable.isNotEmpty() && runAttemptCount < config.retryMaxAttempts -> {
+                Log.w("ZeusSMS", "${retryable.size} destination(s) pending, will retry: ${retryable.joinToString { it.config.name }}")
+                // Best-effort destinations are not retried
+                closePending(closable.filter { !it.required }, sms, msgId, "Not retried: optional destination")
+                ForwardResult(Outcome.RETRY, allIds, allWebhookIds, requiredIds)
+            }
+            deferred.isNotEmpty() -> {
+                Log.d("ZeusSMS", "${deferred.size} destination(s) rate limited, queued: ${deferred.joinToString { it.config.name }}")
+                closePending(closable.filter { stateOf(it) == DeliveryState.RETRYABLE }, sms, msgId, "Gave up after ${runAttemptCount + 1} attempt(s)")
+                ForwardResult(Outcome.DEFERRED, allIds, allWebhookIds, requiredIds)
+            }
+            else -> {
+                Log.e("ZeusSMS", "Delivery failed under policy ${policy.name.lowercase()} after ${runAttemptCount + 1} attempt(s)")
+                closePending(closable, sms, msgId, "Gave up after ${runAttemptCount + 1} attempt(s)")
+                ForwardResult(Outcome.FAILURE, allIds, allWebhookIds, requiredIds)
+            }
+        }
+    }
+
+    /**
+     * Maps the message to one log entry per destination. New messages get fresh entries; retries
+     * reuse the entries they were given, each for the one webhook it was created for (from the
+     * entry, else [webhookIds], else URL matching for legacy entries). An entry that is gone or
+     * whose webhook is no longer enabled is dropped, never sent to other destinations.
+     *
+     * Under [DeliveryPolicy.FIRST_N] the required entries are the [requiredLogIds] fixed at the
+     * first attempt, so a change in ranking between retries cannot move the goal; only a first
+     * attempt (or a retry queued without them) picks the N best-ranked.
+     */
+    private fun resolveDeliveries(
+        sms: InboundSms,
+        msgId: String,
+        subId: Int,
+        logIds: LongArray,
+        webhookIds: Array<String>,
+        webhookConfigs: List<WebhookConfig>,
+        policy: DeliveryPolicy,
+        requiredCount: Int,
+        requiredLogIds: LongArray?
+    ): List<Delivery> {
+        val pairs: List<Pair<WebhookConfig, Long>> = if (logIds.isEmpty()) {
+            webhookConfigs.map { config ->
+                config to smsLogManager.addSmsEntry(
+                    sms.from, sms.body, sms.timestamp, subId, config.url, sms.isTest,
+                    webhookId = config.id, msgId = msgId
+                )
+            }
+        } else {
+            logIds.withIndex().mapNotNull { (index, logId) ->
+                val entry = smsLogManager.getSmsLogById(logId)
+                if (entry == null) {
+                    Log.w("ZeusSMS", "Log entry $logId no longer exists; dropping its delivery")
+                    return@mapNotNull null
+                }
+                val webhookId = entry.webhookId ?: webhookIds.getOrNull(index)?.takeIf { it.isNotEmpty() }
+                val config = (if (webhookId != null) webhookConfigs.find { it.id == webhookId } else null)
+                    ?: webhookConfigs.find { it.url == entry.webhookUrl }
+                if (config == null && isPending(logId)) {
+                    smsLogManager.updateSmsStatus(logId, ForwardingStatus.FAILED, "Destination is no longer enabled")
+                }
+                config?.let { it to logId }
+            }
+        }
+
+        val ranked = health.rank(pairs) { it.first }
+        return ranked.mapIndexed { index, (config, logId) ->
+            val required = when {
+                policy != DeliveryPolicy.FIRST_N -> true
+                requiredLogIds != null -> logId in requiredLogIds
+                else -> index < requiredCount
+            }
+            Delivery(config, logId, required)
+        }
+    }
+
+    private fun isPending(logId: Long): Boolean {
+        // A missing entry can no longer be delivered to
+        val status = smsLogManager.getSmsLogById(logId)?.status ?: return false
+        return status != ForwardingStatus.SUCCESS && status != ForwardingStatus.FAILED
+    }
+
+    private fun closePending(
+        deliveries: List<Delivery>,
+        sms: InboundSms,
+        msgId: String,
+        reason: String,
+        deadLetter: Boolean = true
+    ) {
+        deliveries.filter { isPending(it.logId) }.forEach {
+            if (deadLetter) giveUp(it, sms, msgId, reason) else smsLogManager.updateSmsStatus(it.logId, ForwardingStatus.FAILED, reason)
+        }
+    }
+
+    /**
+     * Marks the entry failed for good and keeps the delivery in the [DeadLetterStore] for
+     * replay. The row is built from the message itself; the log entry only refines the reason.
+     */
+    private fun giveUp(delivery: Delivery, sms: InboundSms, msgId: String, errorMessage: String?) {
+        smsLogManager.updateSmsStatus(delivery.logId, ForwardingStatus.FAILED, errorMessage)
+        val entry = smsLogManager.getSmsLogById(delivery.logId)
+        deadLetters.add(
+            DeadLetter(
+                logId = delivery.logId,
+                webhookId = delivery.config.id,
+                webhookUrl = delivery.config.url,
+                reason = entry?.let { DeadLetterReason.of(it) } ?: DeadLetterReason.NOT_SENT,
+                error = errorMessage,
+                msgId = msgId,
+                sender = sms.from,
+                body = sms.body,
+                timestamp = sms.timestamp,
+                subscriptionId = sms.subscriptionId,
+                isTest = sms.isTest,
+                failedAt = System.currentTimeMillis()
+            )
+        )
+    }
+
+    /** POSTs [payload] to one destination and records the attempt against its log entry. */
+    private fun deliverTo(
+        delivery: Delivery,
+        sms: InboundSms,
+        msgId: String,
+        payload: ByteString,
+        runAttemptCount: Int
+    ): DeliveryState {
+        val webhookConfig = delivery.config
+        val logId = delivery.logId
+        val webhookUrl = webhookConfig.url
+
+        // Validate URL for security
+        if (!isSecureUrl(webhookUrl)) {
+            val errorMsg = "Invalid or potentially unsafe URL detected: ${webhookConfig.name}"
+            Log.e("ZeusSMS", errorMsg)
+            giveUp(delivery, sms, msgId, errorMsg)
+            return DeliveryState.PERMANENT
+        }
+
+        if (ledger.isAcknowledged(msgId, webhookConfig.id)) {
+            Log.d("ZeusSMS", "$msgId already acknowledged by ${webhookConfig.name}; not re-sending")
+            smsLogManager.updateSmsStatus(logId, ForwardingStatus.SUCCESS, "Already delivered to ${webhookConfig.name}")
+            return DeliveryState.SUCCESS
+        }
+
+        if (!network.isOnline) {
+            return defer(delivery, sms, msgId, runAttemptCount, RateLimitSpill.PARKED, "No network")
+        }
+
+        // Before the rate limit, so a skipped request does not use up a token
+        if (!health.allowRequest(webhookConfig)) {
+            Log.d("ZeusSMS", "Circuit open for ${webhookConfig.name}; skipping")
+            smsLogManager.updateSmsStatus(logId, ForwardingStatus.RETRYING, "Circuit open: ${webhookConfig.name} is failing")
+            return DeliveryState.RETRYABLE
+        }
+
+        // Batches take their token when the shared request is sent
+        if (webhookConfig.batch == null) {
+            val wait = WebhookRateLimiter.acquire(webhookConfig, MAX_INLINE_RATE_WAIT_MS)
+            if (wait > 0) return defer(delivery, sms, msgId, runAttemptCount, System.currentTimeMillis() + wait, "Rate limited")
+        }
+
+        if (webhookConfig.batch != null) {
+            return deliverBatched(delivery, sms, msgId, payload, runAttemptCount)
+        }
+
+        // Build request with webhook-specific secret
+        val media = "application/json; charset=utf-8".toMediaType()
+        val reqBuilder = Request.Builder()
+            .url(webhookUrl)
+            .post(payload.toRequestBody(media))
+            .addHeader("User-Agent", "Zeus-SMS-Microservice/1.0")
+            .addHeader("Content-Type", "application/json")
+            .addHeader("X-Webhook-Name", webhookConfig.name)
+            .addHeader("X-Webhook-ID", webhookConfig.id)
+            .addHeader("Idempotency-Key", msgId)
+        
+        if (webhookConfig.secret.isNotEmpty()) {
+            reqBuilder.addHeader("X-Webhook-Secret", webhookConfig.secret)
+        }
+        
+        val req = reqBuilder.build()
+        val attemptIndex = smsLogManager.recordAttemptStart(logId)
+        val startedAt = System.currentTimeMillis()
+
+        return try {
+            val sanitizedUrl = sanitizeUrlForLogging(webhookUrl)
+            Log.d("ZeusSMS", "POSTing to ${webhookConfig.name} ($sanitizedUrl) bodyLength=${payload.size}")
+            
+            val call = client.newCall(req)
+            timeouts.apply(call, webhookConfig)
+            call.execute().use { resp ->
+                Log.d("ZeusSMS", "Response from ${webhookConfig.name}: code=${resp.code} success=${resp.isSuccessful}")
+                val durationMs = System.currentTimeMillis() - startedAt
+                timeouts.record(webhookConfig, durationMs)
+                health.record(webhookConfig, reachable = resp.code < 500, delivered = resp.isSuccessful, latencyMs = durationMs)
+                // Read the body out so the connection goes back to the pool; keep its start for diagnostics
+                val drained = ResponseDrainer.drain(
+                    resp,
+                    snippetBytes = ERROR_SNIPPET_CHARS,
+                    limitBytes = ForwardingConfig.get(context).responseDrainBytes
+                )
+                val errorSnippet = listOfNotNull("HTTP ${resp.code}: ${resp.message}", drained.snippet)
+                    .joinToString(" | ")
+                    .take(ERROR_SNIPPET_CHARS)
+                
+                when {
+                    resp.isSuccessful -> {
+                        ledger.recordAck(msgId, webhookConfig.id)
+                        smsLogManager.recordAttemptFinish(logId, attemptIndex, resp.code, true, null, durationMs)
+                        smsLogManager.updateSmsStatus(logId, ForwardingStatus.SUCCESS)
+                        Log.d("ZeusSMS", "Successfully sent to ${webhookConfig.name}")
+                        DeliveryState.SUCCESS
+                    }
+                    resp.code == 429 -> {
+                        // Throttled, not rejected: pause the bucket and queue the delivery
+                        val retryAfter = WebhookRateLimiter.retryAfterMs(resp) ?: WebhookRateLimiter.DEFAULT_RETRY_AFTER_MS
+                        WebhookRateLimiter.pause(webhookConfig, retryAfter)
+                        Log.w("ZeusSMS", "Throttled by ${webhookConfig.name}; retrying in ${retryAfter}ms")
+                        smsLogManager.recordAttemptFinish(logId, attemptIndex, resp.code, false, errorSnippet, durationMs)
+                        defer(delivery, sms, msgId, runAttemptCount, System.currentTimeMillis() + retryAfter, "HTTP 429")
+                    }
+                    resp.code in 400..499 -> {
+                        // Client error - don't retry this webhook
+                        val errorMsg = "HTTP ${resp.code}: ${resp.message}"
+                        Log.w("ZeusSMS", "Client error from ${webhookConfig.name}: $errorSnippet")
+                        smsLogManager.recordAttemptFinish(logId, attemptIndex, resp.code, false, errorSnippet, durationMs)
+                        giveUp(delivery, sms, msgId, errorMsg)
+                        DeliveryState.PERMANENT
+                    }
+                    else -> {
+                        // Server error - retry this webhook later; an announced outage also holds back other senders
+                        WebhookRateLimiter.retryAfterMs(resp)?.let { WebhookRateLimiter.pause(webhookConfig, it) }
+                        val errorMsg = "HTTP ${resp.code}: ${resp.message}"
+                        Log.w("ZeusSMS", "Server error from ${webhookConfig.name}: $errorSnippet")
+                        smsLogManager.recordAttemptFinish(logId, attemptIndex, resp.code, false, errorSnippet, durationMs)
+                        smsLogManager.updateSmsStatus(logId, ForwardingStatus.RETRYING, errorMsg)
+                        DeliveryState.RETRYABLE
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            // Network error for this webhook
+            val errorMsg = "Network error from ${webhookConfig.name}: ${e.message}"
+            Log.e("ZeusSMS", errorMsg, e)
+            val durationMs = System.currentTimeMillis() - startedAt
+            smsLogManager.recordAttemptFinish(logId, attemptIndex, null, false, errorMsg.take(ERROR_SNIPPET_CHARS), durationMs)
+            if (!network.isOnline) {
+                // The device lost its network, which says nothing about the endpoint
+                return defer(delivery, sms, msgId, runAttemptCount, RateLimitSpill.PARKED, "Network lost")
+            }
+            // Timeouts count at their elapsed time so a slowing endpoint raises its own limit
+            if (e is InterruptedIOException) timeouts.record(webhookConfig, durationMs)
+            health.record(webhookConfig, reachable = false, delivered = false, latencyMs = null)
+            smsLogManager.updateSmsStatus(logId, ForwardingStatus.RETRYING, errorMsg)
+            DeliveryState.RETRYABLE
+        }
+    }
+
+    /** Queues the delivery in [RateLimitSpill] to run at [notBefore] (or [RateLimitSpill.PARKED]). */
+    private fun defer(
+        delivery: Delivery,
+        sms: InboundSms,
+        msgId: String,
+        runAttemptCount: Int,
+        notBefore: Long,
+        reason: String
+    ): DeliveryState {
+        spill.add(sms, msgId, delivery.logId, delivery.config.id, runAttemptCount, notBefore)
+        smsLogManager.updateSmsStatus(delivery.logId, ForwardingStatus.RETRYING, "$reason: queued for ${delivery.config.name}")
+        return DeliveryState.DEFERRED
+    }
+
+    /**
+     * Hands [payload] to [WebhookBatcher] and records the per-item outcome of the shared request.
+     * On a metered network the batch limits may be raised ([DeliveryScheduler.batchingFor]).
+     */
+    private fun deliverBatched(
+        delivery: Delivery,
+        sms: InboundSms,
+        msgId: String,
+        payload: ByteString,
+        runAttemptCount: Int
+    ): DeliveryState {
+        val logId = delivery.logId
+        val batchConfig = network.batchingFor(delivery.config, ForwardingConfig.get(context).meteredBatchFactor)
+        val settings = batchConfig.batch ?: return DeliveryState.RETRYABLE
+        val attemptIndex = smsLogManager.recordAttemptStart(logId)
+        val startedAt = System.currentTimeMillis()
+
+        // The batch waits for a rate-limit token no longer than a single post would
+        val sendBy = startedAt + settings.effectiveMaxDelayMs + MAX_INLINE_RATE_WAIT_MS
+        val result = try {
+            WebhookBatcher.submit(batchConfig, msgId, payload, timeouts.timeoutMs(delivery.config, batched = true), sendBy)
+                .get(settings.effectiveMaxDelayMs + BATCH_RESULT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+        } catch (e: Exception) {
+            WebhookBatcher.ItemResult(null, false, retryable = true, error = "Batch delivery timed out: ${e.message}")
+        }
+        val durationMs = System.currentTimeMillis() - startedAt
+        result.retryAtMs?.let { retryAt ->
+            smsLogManager.recordAttemptFinish(logId, attemptIndex, null, false, result.error, durationMs)
+            return defer(delivery, sms, msgId, runAttemptCount, retryAt, "Rate limited")
+        }
+        val status = result.httpStatus
+        if (status == null && !result.success && !network.isOnline) {
+            smsLogManager.recordAttemptFinish(logId, attemptIndex, null, false, result.error?.take(ERROR_SNIPPET_CHARS), durationMs)
+            return defer(delivery, sms, msgId, runAttemptCount, RateLimitSpill.PARKED, "Network lost")
+        }
+        result.latencyMs?.let { timeouts.record(delivery.config, it, batched = true) }
+        health.record(
+            delivery.config,
+            reachable = status != null && status < 500,
+            delivered = result.success,
+            latencyMs = if (status != null) result.latencyMs else null
+        )
+
+        smsLogManager.recordAttemptFinish(logId, attemptIndex, result.httpStatus, result.success, result.error?.take(ERROR_SNIPPET_CHARS), durationMs)
+        return when {
+            result.success -> {
+                ledger.recordAck(msgId, delivery.config.id)
+                smsLogManager.updateSmsStatus(logId, ForwardingStatus.SUCCESS)
+                DeliveryState.SUCCESS
+            }
+            result.retryable -> {
+                smsLogManager.updateSmsStatus(logId, ForwardingStatus.RETRYING, result.error)
+                DeliveryState.RETRYABLE
+            }
+            else -> {
+                giveUp(delivery, sms, msgId, result.error)
+                DeliveryState.PERMANENT
+            }
+        }
+    }
+
+    /**
+     * Validates URL for security - prevents SSRF and other attacks
+     */
+    private fun isSecureUrl(url: String): Boolean {
+        return try {
+            val parsedUrl = URL(url)
+            
+            // Must use HTTPS for production
+            if (parsedUrl.protocol != "https" && parsedUrl.protocol != "http") {
+                return false
+            }
+            
+            // Block localhost, private IPs, and internal networks
+            val host = parsedUrl.host.lowercase()
+            when {
+                host == "localhost" || host == "127.0.0.1" -> false
+                host.startsWith("192.168.") -> false
+                host.startsWith("10.") -> false
+                host.matches(Regex("172\\.(1[6-9]|2[0-9]|3[0-1])\\..*")) -> false
+                host.startsWith("169.254.") -> false // Link-local
+                host.startsWith("0.") -> false
+                host == "::1" -> false // IPv6 localhost
+                host.startsWith("fc") || host.startsWith("fd") -> false // IPv6 private
+                else -> true
+            }
+        } catch (e: MalformedURLException) {
+            false
+        }
+    }
+
+    /**
+     * Removes sensitive information from URLs for logging
+     */
+    private fun sanitizeUrlForLogging(url: String): String {
+        return try {
+            val parsedUrl = URL(url)
+            "${parsedUrl.protocol}://${parsedUrl.host}${parsedUrl.path}***"
+        } catch (e: Exception) {
+            "[URL parsing error]"
+        }
+    }
+}
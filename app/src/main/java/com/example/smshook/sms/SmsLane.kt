@@ -0,0 +1,138 @@
+package com.example.smshook.sms
+
+import com.example.smshook.utils.MultiPatternMatcher
+
+/**
+ * Delivery lane of a received SMS. Each lane has its own [SmsOutbox] and its own
+ * delivery threads, so a burst of bulk messages cannot hold up an OTP.
+ */
+enum class SmsLane {
+    /** OTPs and messages matching the express rules; drained first, scheduled expedited. */
+    EXPRESS,
+    NORMAL
+}
+
+/**
+ * Assigns received SMS to a [SmsLane]: configured express senders and keywords
+ * (comma-separated, case-insensitive substrings), plus a built-in OTP detector that
+ * looks for a code keyword together with a standalone 4-8 digit code. The bare words
+ * "code" and "pin" only count when the code stands right next to them, and dates, times,
+ * amounts and phone numbers are never taken for a code, so promotions stay in the normal
+ * lane. Part of [com.example.smshook.config.ForwardingConfig].
+ */
+class LaneClassifier private constructor(
+    private val sender: MultiPatternMatcher,
+    private val body: MultiPatternMatcher,
+    private val detectOtp: Boolean
+) {
+
+    companion object {
+        private const val FLAG_EXPRESS = 1
+        private const val FLAG_OTP_HINT = 1 shl 1
+        private const val FLAG_CODE_WORD = 1 shl 2
+
+        private const val MIN_CODE_DIGITS = 4
+        private const val MAX_CODE_DIGITS = 8
+        // Most characters between a bare "code"/"pin" and its code
+        private const val CODE_WORD_DISTANCE = 20
+
+        private val OTP_HINTS = listOf(
+            "otp", "one-time", "one time", "passcode", "verification", "verify", "security code",
+            "login code", "auth code", "access code", "confirmation code", "2fa"
+        )
+        // Also common in promotions, so only trusted next to a code
+        private val CODE_WORDS = listOf("code", "pin")
+        private val CODE_WORD = Regex("\\b(?:code|pin)\\b", RegexOption.IGNORE_CASE)
+
+        fun compile(senderCsv: String?, keywordsCsv: String?, detectOtp: Boolean): LaneClassifier {
+            return LaneClassifier(
+                sender = MultiPatternMatcher(splitCsv(senderCsv).map { it to FLAG_EXPRESS }),
+                body = MultiPatternMatcher(
+                    splitCsv(keywordsCsv).map { it to FLAG_EXPRESS } +
+                        (if (detectOtp) OTP_HINTS.map { it to FLAG_OTP_HINT } + CODE_WORDS.map { it to FLAG_CODE_WORD } else emptyList())
+                ),
+                detectOtp = detectOtp
+            )
+        }
+
+        private fun splitCsv(raw: String?): List<String> =
+            raw.orEmpty().split(',').map { it.trim() }.filter { it.isNotEmpty() }
+
+        /**
+         * Positions of standalone codes in [text]: 4-8 digits, optionally split once by a space
+         * or dash. Numbers glued to letters (order numbers, URLs), numbers with more groups or
+         * other separators (dates, times, amounts), phone-like numbers (a leading `+` or
+         * `(`, or a split number starting with 0) and lone years (1900-2099) are left out.
+         */
+        internal fun codeTokens(text: String): List<IntRange> {
+            val tokens = ArrayList<IntRange>()
+            var i = 0
+            while (i < text.length) {
+                if (!text[i].isDigit()) {
+                    i++
+                    continue
+                }
+                // Maximal run of digit groups joined by single separators
+                val start = i
+                var groups = 1
+                var digits = 0
+                var splitBy = ' '
+                var end = i
+                while (end < text.length) {
+                    val c = text[end]
+                    if (c.isDigit()) {
+                        digits++
+                        end++
+                    } else if (c in " -./:," && end + 1 < text.length && text[end + 1].isDigit()) {
+                        groups++
+                        splitBy = c
+                        end++
+                    } else {
+                        break
+                    }
+                }
+                i = end
+
+                val before = if (start > 0) text[start - 1] else ' '
+                val after = if (end < text.length) text[end] else ' '
+                val standalone = !before.isLetterOrDigit() && before != '+' && before != '(' && !after.isLetter()
+                val shaped = when (groups) {
+                    1 -> true
+                    2 -> (splitBy == ' ' || splitBy == '-') && text[start] != '0'
+                    else -> false
+                }
+                // A lone 4-digit year is far more likely than a code
+                val year = groups == 1 && digits == 4 && text.substring(start, end).toInt() in 1900..2099
+                if (standalone && shaped && !year && digits in MIN_CODE_DIGITS..MAX_CODE_DIGITS) {
+                    tokens += start until end
+                }
+            }
+            return tokens
+        }
+
+        /** True if [text] has a standalone code, see [codeTokens]. */
+        internal fun hasCode(text: String): Boolean = codeTokens(text).isNotEmpty()
+
+        /** True if a code in [text] stands within a few characters of a bare "code" or "pin". */
+        internal fun hasCodeNextToWord(text: String): Boolean {
+            val codes = codeTokens(text)
+            if (codes.isEmpty()) return false
+            return CODE_WORD.findAll(text).any { word ->
+                codes.any { code ->
+                    val gap = if (code.first > word.range.last) code.first - word.range.last - 1 else word.range.first - code.last - 1
+                    gap in 0..CODE_WORD_DISTANCE
+                }
+            }
+        }
+    }
+
+    fun classify(from: String, text: String): SmsLane {
+        if (!sender.isEmpty && sender.scan(from, FLAG_EXPRESS) != 0) return SmsLane.EXPRESS
+        if (body.isEmpty) return SmsLane.NORMAL
+        val found = body.scan(text, FLAG_EXPRESS)
+        if (found and FLAG_EXPRESS != 0) return SmsLane.EXPRESS
+        if (detectOtp && found and FLAG_OTP_HINT != 0 && hasCode(text)) return SmsLane.EXPRESS
+        if (detectOtp && found and FLAG_CODE_WORD != 0 && hasCodeNextToWord(text)) return SmsLane.EXPRESS
+        return SmsLane.NORMAL
+    }
+}
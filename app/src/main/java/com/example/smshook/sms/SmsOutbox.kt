@@ -0,0 +1,390 @@
+package com.example.smshook.sms
+
+import android.content.Context
+import android.util.AtomicFile
+import android.util.Log
+import androidx.work.Constraints
+import androidx.work.ExistingWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.OutOfQuotaPolicy
+import androidx.work.WorkManager
+import androidx.work.workDataOf
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.zip.CRC32
+
+/**
+ * Durable, append-only outbox for received SMS.
+ *
+ * [SmsReceiver] appends one record per message and [OutboxDrainWorker] reads the
+ * records back in order, committing its read position after each delivery. Records
+ * live in numbered segment files under `filesDir/sms_outbox`; a segment is deleted
+ * once the committed position has moved past it.
+ *
+ * Record layout: `[int length][int crc32][payload]`. Each process start appends to a
+ * fresh segment, so a torn record left by a crash can only be the last one in its
+ * segment; the reader stops at it and moves on to the next segment.
+ *
+ * There is one outbox per [SmsLane], each in its own directory with its own cursor and
+ * drain work, so records of the express lane never queue behind normal ones. Express
+ * drains are scheduled as expedited work.
+ */
+class SmsOutbox private constructor(context: Context, val lane: SmsLane) {
+
+    companion object {
+        private const val TAG = "SmsOutbox"
+        private const val DIR_NAME = "sms_outbox"
+        private const val EXPRESS_DIR_NAME = "sms_outbox_express"
+        private const val CURSOR_FILE_NAME = "cursor"
+        private const val SEGMENT_SUFFIX = ".seg"
+        private const val SEGMENT_MAX_BYTES = 1L shl 20
+        private const val RECORD_VERSION = 2
+        private const val MAX_RECORD_BYTES = 256 * 1024
+
+        // Group commit: fsync after this many unsynced records or this much time
+        private const val FSYNC_BATCH_RECORDS = 32
+        private const val FSYNC_INTERVAL_MS = 200L
+
+        const val DRAIN_WORK_NAME = "zeus-sms-outbox-drain"
+        const val SAFETY_DRAIN_WORK_NAME = "zeus-sms-outbox-safety-drain"
+        const val KEY_LANE = "lane"
+        // Delay of the safety-net drain that covers a fast-path attempt dying with the process
+        private const val SAFETY_DRAIN_DELAY_SECONDS = 60L
+
+        private val INSTANCES = arrayOfNulls<SmsOutbox>(SmsLane.values().size)
+
+        fun getInstance(context: Context, lane: SmsLane = SmsLane.NORMAL): SmsOutbox {
+            synchronized(INSTANCES) {
+                return INSTANCES[lane.ordinal]
+                    ?: SmsOutbox(context.applicationContext, lane).also { INSTANCES[lane.ordinal] = it }
+            }
+        }
+    }
+
+    /** Position of the next unread record. */
+    data class Position(val segment: Long, val offset: Long)
+
+    /** A read record; [sms] is null when the payload could not be decoded and should just be committed past. */
+    data class Entry(val sms: InboundSms?, val next: Position)
+
+    private val appContext = context.applicationContext
+    private val dir = File(context.filesDir, if (lane == SmsLane.EXPRESS) EXPRESS_DIR_NAME else DIR_NAME).apply { mkdirs() }
+    private val cursorFile = AtomicFile(File(dir, CURSOR_FILE_NAME))
+    private val lock = Any()
+
+    private var writeSegment: Long
+    private var writeStream: FileOutputStream? = null
+    private var writeSize = 0L
+    private var unsyncedRecords = 0
+    private var lastSyncAt = 0L
+    private var committed: Position
+
+    private val syncExecutor: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor()
+    private var pendingSync: ScheduledFuture<*>? = null
+
+    /** Held by the one [OutboxDrainer] consuming records; appends then skip scheduling. */
+    val draining = AtomicBoolean(false)
+
+    init {
+        val segments = listSegments()
+        committed = readCursor() ?: Position(segments.firstOrNull() ?: 0L, 0L)
+        // Never append behind a possibly torn tail from a previous process
+        writeSegment = maxOf((segments.lastOrNull() ?: -1L) + 1, committed.segment)
+        writeSize = 0L
+    }
+
+    /**
+     * Appends [sms] to the outbox. The bytes reach the OS before this returns, so they
+     * survive process death; fsync is batched across appends to bound disk flushes.
+     * A body too large for one record is cut to fit, since the reader would stop at the
+     * record and hold up the lane behind it.
+     */
+    fun append(sms: InboundSms) {
+        val payload = encode(fitToRecord(sms))
+        val crc = CRC32().apply { update(payload) }
+        val record = ByteArrayOutputStream(payload.size + 8)
+        DataOutputStream(record).use {
+            it.writeInt(payload.size)
+            it.writeInt(crc.value.toInt())
+            it.write(payload)
+        }
+
+        synchronized(lock) {
+            if (writeSize >= SEGMENT_MAX_BYTES) {
+                rollSegment()
+            }
+            val out = writeStream ?: FileOutputStream(segmentFile(writeSegment), true).also { writeStream = it }
+            out.write(record.toByteArray())
+            writeSize += record.size()
+            unsyncedRecords++
+
+            val now = System.currentTimeMillis()
+            if (unsyncedRecords >= FSYNC_BATCH_RECORDS || now - lastSyncAt >= FSYNC_INTERVAL_MS) {
+                syncLocked()
+            } else if (pendingSync == null) {
+                pendingSync = syncExecutor.schedule({
+                    synchronized(lock) { syncLocked() }
+                }, FSYNC_INTERVAL_MS, TimeUnit.MILLISECONDS)
+            }
+        }
+    }
+
+    /**
+     * Reads up to [max] records starting at the committed position. Does not advance
+     * the committed position; call [commit] with [Entry.next] once a record is handled.
+     */
+    fun read(max: Int): List<Entry> {
+        synchronized(lock) {
+            val result = ArrayList<Entry>(max)
+            var segment = committed.segment
+            var offset = committed.offset
+
+            while (result.size < max && segment <= writeSegment) {
+                val file = segmentFile(segment)
+                if (!file.exists()) {
+                    if (segment == writeSegment) break
+                    segment++
+                    offset = 0L
+                    if (result.isEmpty()) commit(Position(segment, 0L))
+                    continue
+                }
+                RandomAccessFile(file, "r").use { raf ->
+                    raf.seek(offset)
+                    while (result.size < max) {
+                        val record = readRecord(raf) ?: break
+                        offset = raf.filePointer
+                        result.add(Entry(decode(record), Position(segment, offset)))
+                    }
+                }
+                if (result.size < max) {
+                    if (segment == writeSegment) break
+                    segment++
+                    offset = 0L
+                    // Nothing handed out from the finished segment, so it can be dropped right away
+                    if (result.isEmpty()) commit(Position(segment, 0L))
+                }
+            }
+            return result
+        }
+    }
+
+    /** True if there is at least one record past the committed position. */
+    fun hasUnread(): Boolean = read(1).isNotEmpty()
+
+    /** Persists [position] as the committed read position and drops fully consumed segments. */
+    fun commit(position: Position) {
+        synchronized(lock) {
+            committed = position
+            writeCursor(position)
+            listSegments().filter { it < position.segment }.forEach { segmentFile(it).delete() }
+        }
+    }
+
+    /**
+     * Ensures a drain worker will pick up newly appended records. While a drain loop
+     * is already active in this process it reads again after clearing [draining],
+     * so no WorkManager round-trip is needed per message.
+     */
+    fun scheduleDrain() {
+        if (draining.get()) return
+        enqueueDrain(0L)
+    }
+
+    /**
+     * Enqueues a drain worker even while an in-process drain holds [draining], delayed by
+     * [delaySeconds] so that drain can finish its current record and let go of the outbox.
+     * Used when the process may go away before that drain hands over on its own.
+     */
+    fun scheduleDrainAfter(delaySeconds: Long) {
+        enqueueDrain(delaySeconds)
+    }
+
+    private fun enqueueDrain(delaySeconds: Long) {
+        val constraints = Constraints.Builder()
+            .setRequiredNetworkType(NetworkType.CONNECTED)
+            .build()
+
+        val builder = OneTimeWorkRequestBuilder<OutboxDrainWorker>()
+            .setConstraints(constraints)
+            .setInputData(workDataOf(KEY_LANE to lane.name))
+            .addTag(ForwardWorker.TAG_SMS_FORWARD)
+        if (delaySeconds > 0) {
+            // Expedited work cannot be delayed
+            builder.setInitialDelay(delaySeconds, TimeUnit.SECONDS)
+        } else if (lane == SmsLane.EXPRESS) {
+            builder.setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
+        }
+
+        WorkManager.getInstance(appContext)
+            .enqueueUniqueWork(workName(DRAIN_WORK_NAME), ExistingWorkPolicy.KEEP, builder.build())
+    }
+
+    /**
+     * Enqueues a delayed drain that only finds work if an in-process attempt ([SmsFastPath])
+     * died before committing; kept (not re-enqueued) while one is already pending.
+     */
+    fun scheduleSafetyDrain() {
+        val constraints = Constraints.Builder()
+            .setRequiredNetworkType(NetworkType.CONNECTED)
+            .build()
+
+        val request = OneTimeWorkRequestBuilder<OutboxDrainWorker>()
+            .setConstraints(constraints)
+            .setInitialDelay(SAFETY_DRAIN_DELAY_SECONDS, TimeUnit.SECONDS)
+            .setInputData(workDataOf(KEY_LANE to lane.name))
+            .addTag(ForwardWorker.TAG_SMS_FORWARD)
+            .build()
+
+        WorkManager.getInstance(appContext)
+            .enqueueUniqueWork(workName(SAFETY_DRAIN_WORK_NAME), ExistingWorkPolicy.KEEP, request)
+    }
+
+    // The normal lane keeps the original names so work enqueued before lanes existed still matches
+    private fun workName(base: String): String =
+        if (lane == SmsLane.NORMAL) base else "$base-${lane.name.lowercase()}"
+
+    /** Forces any unsynced appends to disk. */
+    fun flush() {
+        synchronized(lock) { syncLocked() }
+    }
+
+    private fun syncLocked() {
+        pendingSync?.cancel(false)
+        pendingSync = null
+        if (unsyncedRecords == 0) return
+        try {
+            writeStream?.fd?.sync()
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to sync outbox segment", e)
+        }
+        unsyncedRecords = 0
+        lastSyncAt = System.currentTimeMillis()
+    }
+
+    private fun rollSegment() {
+        syncLocked()
+        writeStream?.close()
+        writeStream = null
+        writeSegment++
+        writeSize = 0L
+    }
+
+    private fun readRecord(raf: RandomAccessFile): ByteArray? {
+        val start = raf.filePointer
+        return try {
+            val length = raf.readInt()
+            val crc = raf.readInt()
+            if (length <= 0 || length > MAX_RECORD_BYTES) {
+                raf.seek(start)
+                return null
+            }
+            val payload = ByteArray(length)
+            raf.readFully(payload)
+            val actual = CRC32().apply { update(payload) }.value.toInt()
+            if (actual != crc) {
+                raf.seek(start)
+                null
+            } else payload
+        } catch (e: EOFException) {
+            // Partially written tail record; wait for the writer
+            raf.seek(start)
+            null
+        }
+    }
+
+    /** [sms], with its body cut at a character boundary if the record would exceed [MAX_RECORD_BYTES]. */
+    private fun fitToRecord(sms: InboundSms): InboundSms {
+        val body = sms.body.toByteArray(Charsets.UTF_8)
+        val overhead = encode(sms.copy(body = "")).size
+        if (overhead + body.size <= MAX_RECORD_BYTES) return sms
+
+        var cut = (MAX_RECORD_BYTES - overhead).coerceAtLeast(0)
+        // Back off continuation bytes so a multi-byte character is not split
+        while (cut > 0 && (body[cut].toInt() and 0xC0) == 0x80) cut--
+        Log.w(TAG, "SMS body of ${body.size} bytes exceeds the outbox record limit; truncated to $cut bytes")
+        return sms.copy(body = String(body, 0, cut, Charsets.UTF_8))
+    }
+
+    private fun encode(sms: InboundSms): ByteArray {
+        val bytes = ByteArrayOutputStream(sms.body.length * 2 + 64)
+        DataOutputStream(bytes).use { out ->
+            out.writeByte(RECORD_VERSION)
+            out.writeUTF(sms.from)
+            val body = sms.body.toByteArray(Charsets.UTF_8)
+            out.writeInt(body.size)
+            out.write(body)
+            out.writeLong(sms.timestamp)
+            out.writeInt(sms.subscriptionId)
+            out.writeBoolean(sms.isTest)
+            out.writeUTF(sms.overrideUrl ?: "")
+            out.writeUTF(sms.msgId ?: "")
+        }
+        return bytes.toByteArray()
+    }
+
+    private fun decode(payload: ByteArray): InboundSms? {
+        return try {
+            DataInputStream(payload.inputStream()).use { input ->
+                // Version 1 records predate msgId; theirs is derived when delivered
+                val version = input.readByte().toInt()
+                if (version != 1 && version != RECORD_VERSION) return null
+                val from = input.readUTF()
+                val body = ByteArray(input.readInt()).also { input.readFully(it) }
+                InboundSms(
+                    from = from,
+                    body = String(body, Charsets.UTF_8),
+                    timestamp = input.readLong(),
+                    subscriptionId = input.readInt(),
+                    isTest = input.readBoolean(),
+                    overrideUrl = input.readUTF().takeIf { it.isNotEmpty() },
+                    msgId = if (version >= 2) input.readUTF().takeIf { it.isNotEmpty() } else null
+                )
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to decode outbox record", e)
+            null
+        }
+    }
+
+    private fun readCursor(): Position? {
+        return try {
+            DataInputStream(cursorFile.openRead()).use { Position(it.readLong(), it.readLong()) }
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    private fun writeCursor(position: Position) {
+        val out = cursorFile.startWrite()
+        try {
+            val data = DataOutputStream(out)
+            data.writeLong(position.segment)
+            data.writeLong(position.offset)
+            data.flush()
+            cursorFile.finishWrite(out)
+        } catch (e: Exception) {
+            cursorFile.failWrite(out)
+            Log.e(TAG, "Failed to persist outbox cursor", e)
+        }
+    }
+
+    private fun segmentFile(index: Long) = File(dir, String.format("%012d%s", index, SEGMENT_SUFFIX))
+
+    private fun listSegments(): List<Long> {
+        return dir.listFiles()
+            ?.mapNotNull { it.name.removeSuffix(SEGMENT_SUFFIX).takeIf { n -> it.name.endsWith(SEGMENT_SUFFIX) }?.toLongOrNull() }
+            ?.sorted()
+            ?: emptyList()
+    }
+}
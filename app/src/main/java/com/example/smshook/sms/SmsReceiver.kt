@@ -4,21 +4,19 @@ import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
 import android.provider.Telephony
-import androidx.work.BackoffPolicy
-import androidx.work.Constraints
-import androidx.work.NetworkType
-import androidx.work.OneTimeWorkRequestBuilder
-import androidx.work.WorkManager
-import androidx.work.workDataOf
-import java.util.concurrent.TimeUnit
-import android.content.SharedPreferences
 import android.util.Log
-import com.example.smshook.fragments.ConfigurationFragment
+import com.example.smshook.config.ForwardingConfig
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 
 class SmsReceiver : BroadcastReceiver() {
-    private val recentFingerprints = ArrayDeque<Pair<String, Long>>()
-    private val maxCache = 100
-    private val windowMs = 30_000L
+
+    companion object {
+        // Duplicate check, outbox append and duplicate record run here one message at a time,
+        // off the main thread, so two copies of an SMS cannot both pass the check
+        private val handoff: ExecutorService = Executors.newSingleThreadExecutor()
+    }
+
     override fun onReceive(context: Context, intent: Intent) {
         try {
             if (Telephony.Sms.Intents.SMS_RECEIVED_ACTION != intent.action) {
@@ -27,9 +25,8 @@ class SmsReceiver : BroadcastReceiver() {
             }
 
             // Respect global forwarding toggle
-            val prefs: SharedPreferences = context.getSharedPreferences("ZeusSMSPrefs", Context.MODE_PRIVATE)
-            val enabled = prefs.getBoolean("zeus_forwarding_enabled", true)
-            if (!enabled) {
+            val config = ForwardingConfig.get(context)
+            if (!config.forwardingEnabled) {
                 Log.d("ZeusSMS", "SMS forwarding is disabled")
                 return
             }
@@ -43,40 +40,6 @@ class SmsReceiver : BroadcastReceiver() {
             val from = msgs.firstOrNull()?.displayOriginatingAddress?.takeIf { it.isNotBlank() } ?: "unknown"
             val timestamp = msgs.firstOrNull()?.timestampMillis ?: System.currentTimeMillis()
             val body = msgs.joinToString(separator = "") { it.messageBody ?: "" }
-            // Duplicate suppression within window
-            val fingerprint = (from + "|" + body.take(64)).lowercase()
-            val now = System.currentTimeMillis()
-            while (recentFingerprints.isNotEmpty() && now - recentFingerprints.first().second > windowMs) {
-                recentFingerprints.removeFirst()
-            }
-            if (recentFingerprints.any { it.first == fingerprint }) {
-                Log.d("ZeusSMS", "Suppressed duplicate SMS within window")
-                return
-            }
-            if (recentFingerprints.size >= maxCache) recentFingerprints.removeFirst()
-            recentFingerprints.addLast(fingerprint to now)
-
-            // Simple rules evaluation
-            val senders = ConfigurationFragment.getRuleSenderContains(context)
-            val includes = ConfigurationFragment.getRuleBodyIncludes(context)
-            val excludes = ConfigurationFragment.getRuleBodyExcludes(context)
-            val overrideUrl = ConfigurationFragment.getRuleOverrideUrl(context)
-
-            val normalizedFrom = from.lowercase()
-            val normalizedBody = body.lowercase()
-
-            val senderPass = senders.isEmpty() || senders.any { normalizedFrom.contains(it.lowercase()) }
-            val includePass = includes.isEmpty() || includes.any { normalizedBody.contains(it.lowercase()) }
-            val excludeFail = excludes.any { normalizedBody.contains(it.lowercase()) }
-            if (!senderPass || !includePass || excludeFail) {
-                Log.d("ZeusSMS", "Rules blocked SMS; not forwarding")
-                return
-            }
-            
-            if (body.isBlank()) {
-                Log.w("ZeusSMS", "Empty SMS body received")
-                return
-            }
 
             // Dual-SIM: subscription id on which this SMS arrived (per-message)
             // (available via SmsMessage on modern Android; fallback handled in Worker)
@@ -91,37 +54,76 @@ class SmsReceiver : BroadcastReceiver() {
                 -1
             }
 
-            Log.d("ZeusSMS", "Processing SMS from: $from, length: ${body.length}")
-            
-            val constraints = Constraints.Builder()
-                .setRequiredNetworkType(NetworkType.CONNECTED)
-                .build()
-
-            val req = OneTimeWorkRequestBuilder<ForwardWorker>()
-                .setInputData(
-                    workDataOf(
-                        "from" to from,
-                        "body" to body,
-                        "timestamp" to timestamp,
-                        "subscriptionId" to subId,
-                        "isTest" to false,
-                        "overrideUrl" to (overrideUrl ?: "")
-                    )
-                )
-                .setConstraints(constraints)
-                .setBackoffCriteria(
-                    BackoffPolicy.EXPONENTIAL,
-                    ConfigurationFragment.getRetryBaseSeconds(context),
-                    TimeUnit.SECONDS
-                )
-                .addTag("zeus-sms-forward")
-                .build()
-
-            // Enqueue normal work to avoid coalescing different messages
-            WorkManager.getInstance(context).enqueue(req)
-            
+            val appContext = context.applicationContext
+            val pending = goAsync()
+            handoff.execute {
+                var handedOff = false
+                try {
+                    handedOff = handOff(appContext, config, from, body, timestamp, subId, pending)
+                } catch (e: Exception) {
+                    Log.e("ZeusSMS", "Error processing SMS", e)
+                } finally {
+                    if (!handedOff) pending.finish()
+                }
+            }
         } catch (e: Exception) {
             Log.e("ZeusSMS", "Error processing SMS", e)
         }
     }
+
+    /** Stores the message in its outbox and starts the fast path; false if it was dropped. */
+    private fun handOff(
+        context: Context,
+        config: ForwardingConfig,
+        from: String,
+        body: String,
+        timestamp: Long,
+        subId: Int,
+        pending: PendingResult
+    ): Boolean {
+        // Duplicate suppression (carrier redelivery, several receivers); shared and persisted across instances
+        val dedup = SmsDedupIndex.getInstance(context)
+        if (dedup.contains(from, body, timestamp)) {
+            Log.d("ZeusSMS", "Suppressed duplicate SMS within window")
+            return false
+        }
+
+        // Rules evaluation (compiled matcher, cached until the rule preferences change)
+        val overrideUrl = config.ruleOverrideUrl
+        if (!config.rules.allows(from, body)) {
+            Log.d("ZeusSMS", "Rules blocked SMS; not forwarding")
+            return false
+        }
+
+        if (body.isBlank()) {
+            Log.w("ZeusSMS", "Empty SMS body received")
+            return false
+        }
+
+        // OTPs and express-rule matches get their own outbox, threads and expedited work
+        val lane = config.laneClassifier.classify(from, body)
+
+        Log.d("ZeusSMS", "Processing SMS from: $from, length: ${body.length}, lane: ${lane.name.lowercase()}")
+
+        // Durable hand-off: one append to the outbox instead of one WorkManager job per SMS
+        val outbox = SmsOutbox.getInstance(context, lane)
+        outbox.append(
+            InboundSms(
+                from = from,
+                body = body,
+                timestamp = timestamp,
+                subscriptionId = subId,
+                isTest = false,
+                overrideUrl = overrideUrl,
+                msgId = InboundSms.stableId(from, body, timestamp)
+            )
+        )
+        // Only now: if the append failed, the carrier's redelivery must not count as a duplicate
+        dedup.record(from, body, timestamp)
+
+        // Attempt delivery right away in this process; WorkManager only as fallback
+        outbox.scheduleSafetyDrain()
+        SmsFastPath.start(context, pending, lane)
+        return true
+    }
 }
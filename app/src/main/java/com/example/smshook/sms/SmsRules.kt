@@ -0,0 +1,45 @@
+package com.example.smshook.sms
+
+import com.example.smshook.utils.MultiPatternMatcher
+
+/**
+ * Compiled form of the sender / body-includes / body-excludes rules. Include and
+ * exclude keywords share one matcher, so the body is scanned once regardless of how
+ * many keywords are configured. Matching is case-insensitive substring, as before.
+ * The current rules are part of [com.example.smshook.config.ForwardingConfig].
+ */
+class SmsRules private constructor(
+    private val sender: MultiPatternMatcher,
+    private val body: MultiPatternMatcher,
+    private val hasIncludes: Boolean
+) {
+
+    companion object {
+        private const val FLAG_SENDER = 1
+        private const val FLAG_INCLUDE = 1 shl 1
+        private const val FLAG_EXCLUDE = 1 shl 2
+
+        /** Compiles comma-separated rule lists; blanks are ignored. */
+        fun compile(senderCsv: String?, includesCsv: String?, excludesCsv: String?): SmsRules {
+            val senders = splitCsv(senderCsv)
+            val includes = splitCsv(includesCsv)
+            val excludes = splitCsv(excludesCsv)
+            return SmsRules(
+                sender = MultiPatternMatcher(senders.map { it to FLAG_SENDER }),
+                body = MultiPatternMatcher(includes.map { it to FLAG_INCLUDE } + excludes.map { it to FLAG_EXCLUDE }),
+                hasIncludes = includes.isNotEmpty()
+            )
+        }
+
+        private fun splitCsv(raw: String?): List<String> =
+            raw.orEmpty().split(',').map { it.trim() }.filter { it.isNotEmpty() }
+    }
+
+    /** True when the message passes the sender and include rules and hits no exclude rule. */
+    fun allows(from: String, text: String): Boolean {
+        if (!sender.isEmpty && sender.scan(from, FLAG_SENDER) == 0) return false
+        val found = body.scan(text, FLAG_EXCLUDE)
+        if (found and FLAG_EXCLUDE != 0) return false
+        return !hasIncludes || found and FLAG_INCLUDE != 0
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.smshook.sms
+
+import android.content.Context
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+
+/**
+ * WorkManager fallback for [RateLimitSpill]: re-drives due rows when no process-local
+ * drain loop is running (e.g. after the process was killed with rows queued). Rows
+ * parked for lack of network are released first, since this only runs when connected.
+ */
+class SpillDrainWorker(ctx: Context, params: WorkerParameters) : Worker(ctx, params) {
+
+    companion object {
+        // Waits on a bucket shorter than this are slept through; longer ones leave it to the retry
+        private const val MAX_INLINE_WAIT_MS = 5_000L
+    }
+
+    override fun doWork(): Result {
+        val spill = RateLimitSpill.getInstance(applicationContext)
+        if (!DeliveryScheduler.getInstance(applicationContext).isOnline) return Result.retry()
+        spill.resumeParked()
+        while (!isStopped) {
+            val next = spill.drainDue() ?: return Result.success()
+            if (next > MAX_INLINE_WAIT_MS) return Result.retry()
+            if (next > 0) Thread.sleep(next)
+        }
+        return Result.retry()
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.smshook.sms
+
+import android.util.Log
+import com.example.smshook.fragments.WebhookConfig
+import com.example.smshook.net.ResponseDrainer
+import com.example.smshook.net.ZeusHttp
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
+import okio.Buffer
+import okio.ByteString
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.InterruptedIOException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Coalesces deliveries to webhooks that have [WebhookConfig.batch] set. Items for the same
+ * webhook are collected until `maxItems` is reached or `maxDelayMs` has passed since the first
+ * one, then sent as a single JSON array or NDJSON request.
+ *
+ * A 2xx response may carry per-item results, either as a top-level array or under `results`,
+ * each element being a boolean or an object with `success`, `ok` or `status` (and optionally
+ * `msgId` to match items out of order). Items the per-item results leave out are treated as
+ * not delivered and retried, and so is every item when the body was too large to read whole.
+ * Without per-item results the HTTP status applies to every item in the batch.
+ *
+ * Each request lists the `msgId` of its items in `X-Idempotency-Keys`, so a receiver can
+ * drop items it already has when a message is retried in a later batch.
+ *
+ * Batches are sent on [senders], never on the timer thread, so a slow or throttled webhook
+ * does not hold up the delayed flushes of the others. A batch waits for its rate-limit
+ * token only until the earliest `sendBy` among its items; past that its items come back
+ * with [ItemResult.retryAtMs] set, unsent.
+ */
+object WebhookBatcher {
+    private const val TAG = "ZeusSMS"
+    private const val MAX_RESPONSE_BYTES = 64L * 1024
+    private const val ERROR_SNIPPET_CHARS = 512
+    // Call timeout for batches without an adaptive one, so a result always arrives in bounded time
+    private const val DEFAULT_CALL_TIMEOUT_MS = 120_000L
+
+    data class ItemResult(
+        val httpStatus: Int?,
+        val success: Boolean,
+        val retryable: Boolean,
+        val error: String?,
+        // Duration of the shared HTTP call, without the time the item spent queued
+        val latencyMs: Long? = null,
+        // Set when the batch was not sent for lack of a rate-limit token: when to try again
+        val retryAtMs: Long? = null
+    )
+
+    private class Item(val msgId: String, val payload: ByteString) {
+        val result = CompletableFuture<ItemResult>()
+    }
+
+    private class PendingBatch(val config: WebhookConfig) {
+        val items = ArrayList<Item>()
+        var flushTask: ScheduledFuture<*>? = null
+        var timeoutMs: Long? = null
+        var sendBy = Long.MAX_VALUE
+    }
+
+    private val lock = Any()
+    private val pending = HashMap<String, PendingBatch>()
+    private val scheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor()
+    private val senders: ExecutorService = Executors.newCachedThreadPool()
+
+    /**
+     * Queues one message for [config]; the future completes when its batch has been answered.
+     * [timeoutMs] bounds the batch request (the largest value among its items wins); [sendBy]
+     * is the latest time the request may still start after waiting for the rate limit.
+     */
+    fun submit(
+        config: WebhookConfig,
+        msgId: String,
+        payload: ByteString,
+        timeoutMs: Long? = null,
+        sendBy: Long = Long.MAX_VALUE
+    ): Future<ItemResult> {
+        val settings = requireNotNull(config.batch) { "Webhook ${config.name} is not in batch mode" }
+        val item = Item(msgId, payload)
+        var ready: PendingBatch? = null
+
+        synchronized(lock) {
+            val batch = pending.getOrPut(config.id) { PendingBatch(config) }
+            batch.items.add(item)
+            if (timeoutMs != null) batch.timeoutMs = maxOf(batch.timeoutMs ?: 0L, timeoutMs)
+            batch.sendBy = minOf(batch.sendBy, sendBy)
+            if (batch.items.size >= settings.effectiveMaxItems) {
+                pending.remove(config.id)
+                batch.flushTask?.cancel(false)
+                ready = batch
+            } else if (batch.flushTask == null) {
+                batch.flushTask = scheduler.schedule(
+                    { flushIfPending(config.id, batch) },
+                    settings.effectiveMaxDelayMs,
+                    TimeUnit.MILLISECONDS
+                )
+            }
+        }
+
+        ready?.let { batch -> senders.execute { send(batch) } }
+        return item.result
+    }
+
+    private fun flushIfPending(key: String, batch: PendingBatch) {
+        synchronized(lock) {
+            if (pending[key] !== batch) return
+            pending.remove(key)
+        }
+        senders.execute { send(batch) }
+    }
+
+    private fun send(batch: PendingBatch) {
+        val config = batch.config
+        val items = batch.items
+        val ndjson = config.batch?.ndjson == true
+
+        // Payloads are already encoded; only separators are added around them
+        val body = Buffer()
+        if (!ndjson) body.writeByte('['.code)
+        items.forEachIndexed { index, item ->
+            if (index > 0 && !ndjson) body.writeByte(','.code)
+            body.write(item.payload)
+            if (ndjson) body.writeByte('\n'.code)
+        }
+        if (!ndjson) body.writeByte(']'.code)
+        val media = if (ndjson) "application/x-ndjson; charset=utf-8" else "application/json; charset=utf-8"
+
+        val reqBuilder = Request.Builder()
+            .url(config.url)
+            .post(body.readByteString().toRequestBody(media.toMediaType()))
+            .addHeader("User-Agent", "Zeus-SMS-Microservice/1.0")
+            .addHeader("X-Webhook-Name", config.name)
+            .addHeader("X-Webhook-ID", config.id)
+            .addHeader("X-Batch-Size", items.size.toString())
+            .addHeader("X-Idempotency-Keys", items.joinToString(",") { it.msgId })
+        if (config.secret.isNotEmpty()) {
+            reqBuilder.addHeader("X-Webhook-Secret", config.secret)
+        }
+
+        Log.d(TAG, "POSTing batch of ${items.size} to ${config.name} (${if (ndjson) "ndjson" else "json array"})")
+        // This runs on a batcher thread, so waiting for the rate limit is fine, but only while
+        // every caller is still waiting for its result; a batch sent later would be a duplicate
+        val wait = WebhookRateLimiter.acquire(config, (batch.sendBy - System.currentTimeMillis()).coerceAtLeast(0L))
+        if (wait > 0L) {
+            Log.w(TAG, "Batch of ${items.size} to ${config.name} not sent: rate limited for ${wait}ms")
+            val retryAt = System.currentTimeMillis() + wait
+            items.forEach {
+                it.result.complete(ItemResult(null, false, retryable = true, error = "Rate limited; not sent", retryAtMs = retryAt))
+            }
+            return
+        }
+        val startedAt = System.currentTimeMillis()
+        try {
+            val call = ZeusHttp.webhook.newCall(reqBuilder.build())
+            call.timeout().timeout(batch.timeoutMs ?: DEFAULT_CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            call.execute().use { resp ->
+                val code = resp.code
+                val latencyMs = System.currentTimeMillis() - startedAt
+                // The whole (bounded) body is read: per-item results live there, and it frees the connection
+                val drained = ResponseDrainer.drain(resp, snippetBytes = MAX_RESPONSE_BYTES.toInt(), limitBytes = MAX_RESPONSE_BYTES)
+                when {
+                    resp.isSuccessful -> {
+                        val acks = acknowledgements(drained.snippet, drained.complete, items.map { it.msgId })
+                        items.forEachIndexed { index, item ->
+                            item.result.complete(
+                                when (acks[index]) {
+                                    true -> ItemResult(code, true, retryable = false, error = null, latencyMs = latencyMs)
+                                    false -> ItemResult(code, false, retryable = false, error = "Rejected in batch response", latencyMs = latencyMs)
+                                    // Not acknowledged: the server may never have processed it
+                                    null -> ItemResult(code, false, retryable = true, error = "No result for item in batch response", latencyMs = latencyMs)
+                                }
+                            )
+                        }
+                    }
+                    else -> {
+                        val error = listOfNotNull("HTTP $code: ${resp.message}", drained.snippet?.take(ERROR_SNIPPET_CHARS))
+                            .joinToString(" | ")
+                        // 429 is throttling, not rejection
+                        val retryable = code == 429 || code !in 400..499
+                        val retryAfter = WebhookRateLimiter.retryAfterMs(resp)
+                            ?: if (code == 429) WebhookRateLimiter.DEFAULT_RETRY_AFTER_MS else null
+                        retryAfter?.let { WebhookRateLimiter.pause(config, it) }
+                        items.forEach { it.result.complete(ItemResult(code, false, retryable, error, latencyMs)) }
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Batch delivery to ${config.name} failed", e)
+            val error = "Network error from ${config.name}: ${e.message}"
+            // A timeout is reported with its elapsed time so the adaptive limit can grow
+            val latencyMs = if (e is InterruptedIOException) System.currentTimeMillis() - startedAt else null
+            items.forEach { it.result.complete(ItemResult(null, false, retryable = true, error = error, latencyMs = latencyMs)) }
+        }
+    }
+
+    /**
+     * Per-item outcome of a 2xx answer, aligned with [msgIds]: true delivered, false rejected,
+     * null not acknowledged. A body without per-item results acknowledges every item, unless
+     * it was cut off ([complete] false), in which case nothing it left out counts as delivered.
+     */
+    internal fun acknowledgements(body: String?, complete: Boolean, msgIds: List<String>): List<Boolean?> {
+        return parseItemResults(body.orEmpty(), msgIds)
+            ?: List(msgIds.size) { if (complete) true else null }
+    }
+
+    /** Returns per-item success flags aligned with [msgIds], or null when the body has none. */
+    private fun parseItemResults(body: String, msgIds: List<String>): List<Boolean?>? {
+        if (body.isBlank()) return null
+        val results = try {
+            val trimmed = body.trim()
+            if (trimmed.startsWith("[")) JSONArray(trimmed) else JSONObject(trimmed).optJSONArray("results")
+        } catch (e: Exception) {
+            null
+        } ?: return null
+
+        val flags = arrayOfNulls<Boolean>(msgIds.size)
+        val indexById = msgIds.withIndex().associate { it.value to it.index }
+        for (i in 0 until results.length()) {
+            val element = results.opt(i)
+            val ok = when (element) {
+                is Boolean -> element
+                is JSONObject -> when {
+                    element.has("success") -> element.optBoolean("success")
+                    element.has("ok") -> element.optBoolean("ok")
+                    element.has("status") -> element.optInt("status") in 200..299
+                    else -> null
+                }
+                else -> null
+            }
+            val target = (element as? JSONObject)?.optString("msgId")?.let { indexById[it] } ?: i
+            if (target in flags.indices) flags[target] = ok
+        }
+        return flags.toList()
+    }
+}
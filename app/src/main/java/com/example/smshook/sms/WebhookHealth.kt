@@ -0,0 +1,222 @@
+package com.example.smshook.sms
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.util.Log
+import com.example.smshook.fragments.WebhookConfig
+import com.example.smshook.net.ZeusHttp
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import okhttp3.Request
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Per-webhook circuit breaker and health statistics, shared by every forwarder in the
+ * process and persisted in SharedPreferences so an open circuit survives a restart.
+ *
+ * A circuit opens after [FAILURE_THRESHOLD] consecutive retryable failures (network
+ * errors, 5xx). While open, deliveries to that webhook are skipped without touching the
+ * network and a background probe checks it once the cooldown has passed; the cooldown
+ * doubles on every failed probe or trial. After the cooldown the circuit is half-open:
+ * one trial delivery is let through and its result closes or re-opens the circuit.
+ */
+class WebhookHealth private constructor(context: Context) {
+
+    companion object {
+        private const val TAG = "ZeusSMS"
+        private const val PREFS_NAME = "ZeusWebhookHealth"
+        private const val KEY_STATE = "health_state"
+
+        private const val FAILURE_THRESHOLD = 5
+        private const val BASE_COOLDOWN_MS = 30_000L
+        private const val MAX_COOLDOWN_MS = 10 * 60_000L
+        private const val PROBE_TIMEOUT_SECONDS = 10L
+        // A trial that never reported back (crash, batch timeout) stops blocking after this
+        private const val TRIAL_TIMEOUT_MS = 5 * 60_000L
+        // Weight of the newest sample in the moving averages
+        private const val EWMA_ALPHA = 0.2
+
+        @Volatile
+        private var INSTANCE: WebhookHealth? = null
+
+        fun getInstance(context: Context): WebhookHealth {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: WebhookHealth(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+    }
+
+    enum class State { CLOSED, OPEN, HALF_OPEN }
+
+    /** Persisted per-webhook record; mutated only under the instance lock. */
+    private data class Entry(
+        var url: String = "",
+        var state: State = State.CLOSED,
+        var consecutiveFailures: Int = 0,
+        var cooldownMs: Long = BASE_COOLDOWN_MS,
+        var openUntil: Long = 0L,
+        var trialStartedAt: Long = 0L,
+        var successRate: Double = 1.0,
+        var latencyMs: Double = 0.0
+    )
+
+    private val prefs: SharedPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+    private val gson = Gson()
+    private val entries: MutableMap<String, Entry> = load()
+    private val prober: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor()
+    private val probeClient by lazy {
+        ZeusHttp.webhook.newBuilder().callTimeout(PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS).build()
+    }
+
+    init {
+        // Resume probing circuits that were open when the process died
+        synchronized(this) {
+            entries.forEach { (id, entry) ->
+                entry.trialStartedAt = 0L
+                if (entry.state != State.CLOSED) scheduleProbeLocked(id, entry)
+            }
+        }
+    }
+
+    /**
+     * Whether a delivery to [config] may go out now. An open circuit past its cooldown
+     * lets exactly one trial through (half-open).
+     */
+    @Synchronized
+    fun allowRequest(config: WebhookConfig, now: Long = System.currentTimeMillis()): Boolean {
+        val entry = entryLocked(config)
+        return when (entry.state) {
+            State.CLOSED -> true
+            State.OPEN, State.HALF_OPEN -> {
+                if (now < entry.openUntil || trialInFlight(entry, now)) return false
+                entry.state = State.HALF_OPEN
+                entry.trialStartedAt = now
+                true
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a delivery. [reachable] is false for network errors and 5xx,
+     * which count towards opening the circuit; [delivered] feeds the success rate.
+     */
+    @Synchronized
+    fun record(config: WebhookConfig, reachable: Boolean, delivered: Boolean, latencyMs: Long?) {
+        val entry = entryLocked(config)
+        entry.successRate += EWMA_ALPHA * ((if (delivered) 1.0 else 0.0) - entry.successRate)
+        if (latencyMs != null) {
+            entry.latencyMs = if (entry.latencyMs == 0.0) latencyMs.toDouble()
+            else entry.latencyMs + EWMA_ALPHA * (latencyMs - entry.latencyMs)
+        }
+
+        if (reachable) {
+            if (entry.state != State.CLOSED) Log.i(TAG, "Circuit for webhook ${config.name} closed")
+            val changed = entry.state != State.CLOSED || entry.consecutiveFailures > 0
+            entry.state = State.CLOSED
+            entry.consecutiveFailures = 0
+            entry.cooldownMs = BASE_COOLDOWN_MS
+            entry.trialStartedAt = 0L
+            if (changed) persistLocked()
+            return
+        }
+
+        entry.consecutiveFailures++
+        when {
+            entry.state == State.HALF_OPEN -> openLocked(config.id, entry, backOff = true)
+            entry.state == State.CLOSED && entry.consecutiveFailures >= FAILURE_THRESHOLD -> {
+                Log.w(TAG, "Circuit for webhook ${config.name} opened after ${entry.consecutiveFailures} failures")
+                openLocked(config.id, entry, backOff = false)
+            }
+        }
+    }
+
+    @Synchronized
+    fun stateOf(webhookId: String): State = entries[webhookId]?.state ?: State.CLOSED
+
+    /**
+     * Orders [items] for delivery: open circuits last, otherwise by static priority plus
+     * a penalty for a low recent success rate and high latency (up to about four
+     * priority steps each).
+     */
+    @Synchronized
+    fun <T> rank(items: List<T>, configOf: (T) -> WebhookConfig): List<T> {
+        return items.sortedWith(compareBy<T> { entries[configOf(it).id]?.state == State.OPEN }
+            .thenBy { item ->
+                val config = configOf(item)
+                val entry = entries[config.id]
+                val failurePenalty = (1.0 - (entry?.successRate ?: 1.0)) * 4.0
+                val latencyPenalty = ((entry?.latencyMs ?: 0.0) / 1000.0 * 0.5).coerceAtMost(4.0)
+                config.priority + failurePenalty + latencyPenalty
+            })
+    }
+
+    private fun entryLocked(config: WebhookConfig): Entry =
+        entries.getOrPut(config.id) { Entry() }.also { it.url = config.url }
+
+    private fun trialInFlight(entry: Entry, now: Long): Boolean =
+        entry.trialStartedAt != 0L && now - entry.trialStartedAt < TRIAL_TIMEOUT_MS
+
+    private fun openLocked(id: String, entry: Entry, backOff: Boolean) {
+        if (backOff) entry.cooldownMs = (entry.cooldownMs * 2).coerceAtMost(MAX_COOLDOWN_MS)
+        entry.state = State.OPEN
+        entry.trialStartedAt = 0L
+        entry.openUntil = System.currentTimeMillis() + entry.cooldownMs
+        persistLocked()
+        scheduleProbeLocked(id, entry)
+    }
+
+    private fun scheduleProbeLocked(id: String, entry: Entry) {
+        val delay = (entry.openUntil - System.currentTimeMillis()).coerceAtLeast(0L)
+        prober.schedule({ probe(id) }, delay, TimeUnit.MILLISECONDS)
+    }
+
+    /** Background reachability check; any non-5xx answer closes the circuit. */
+    private fun probe(id: String) {
+        val url = synchronized(this) {
+            val entry = entries[id] ?: return
+            val now = System.currentTimeMillis()
+            if (entry.state == State.CLOSED || trialInFlight(entry, now)) return
+            if (now < entry.openUntil) {
+                scheduleProbeLocked(id, entry)
+                return
+            }
+            entry.trialStartedAt = now
+            entry.url
+        }
+        val reachable = try {
+            probeClient.newCall(Request.Builder().url(url).head().build()).execute().use { it.code < 500 }
+        } catch (e: Exception) {
+            false
+        }
+        synchronized(this) {
+            val entry = entries[id] ?: return
+            entry.trialStartedAt = 0L
+            if (entry.state == State.CLOSED) return
+            if (reachable) {
+                Log.i(TAG, "Probe reached webhook $id; circuit closed")
+                entry.state = State.CLOSED
+                entry.consecutiveFailures = 0
+                entry.cooldownMs = BASE_COOLDOWN_MS
+                persistLocked()
+            } else {
+                openLocked(id, entry, backOff = true)
+            }
+        }
+    }
+
+    private fun load(): MutableMap<String, Entry> {
+        val json = prefs.getString(KEY_STATE, null) ?: return HashMap()
+        return try {
+            gson.fromJson<HashMap<String, Entry>>(json, object : TypeToken<HashMap<String, Entry>>() {}.type) ?: HashMap()
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to load webhook health state", e)
+            HashMap()
+        }
+    }
+
+    private fun persistLocked() {
+        prefs.edit().putString(KEY_STATE, gson.toJson(entries)).apply()
+    }
+}
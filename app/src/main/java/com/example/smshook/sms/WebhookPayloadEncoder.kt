@@ -0,0 +1,158 @@
+package com.example.smshook.sms
+
+import android.os.Build
+import okio.Buffer
+import okio.BufferedSink
+import okio.ByteString
+import okio.ByteString.Companion.encodeUtf8
+
+/**
+ * Writes the webhook JSON payload straight into an Okio sink. The constant parts of the
+ * document (keys, the `zeus_metadata` service block and the device block) are encoded to
+ * UTF-8 once, and the timestamp is formatted arithmetically, so encoding a message only
+ * costs the variable strings. Instances are immutable and thread-safe.
+ *
+ * The layout matches the JSONObject-based payload it replaces:
+ * `{"RCSMessage":{"msgId","textMessage","timestamp"},"messageContact":{"userContact"},
+ * "event":"message","zeus_metadata":{...}}`.
+ */
+class WebhookPayloadEncoder(manufacturer: String?, model: String?, sdk: Int) {
+
+    companion object {
+        val default: WebhookPayloadEncoder by lazy {
+            WebhookPayloadEncoder(Build.MANUFACTURER, Build.MODEL, Build.VERSION.SDK_INT)
+        }
+
+        private val OPEN_MSG_ID = "{\"RCSMessage\":{\"msgId\":".encodeUtf8()
+        private val KEY_TEXT = ",\"textMessage\":".encodeUtf8()
+        private val KEY_TIMESTAMP = ",\"timestamp\":\"".encodeUtf8()
+        private val KEY_CONTACT = "\"},\"messageContact\":{\"userContact\":".encodeUtf8()
+        private val KEY_METADATA = ("},\"event\":\"message\",\"zeus_metadata\":" +
+            "{\"service\":\"zeus-sms-microservice\",\"subscription_id\":").encodeUtf8()
+        private val KEY_IS_TEST = ",\"is_test\":".encodeUtf8()
+
+        private const val MILLIS_PER_DAY = 86_400_000L
+        private const val HEX = "0123456789abcdef"
+
+        /** Writes [value] as a quoted JSON string, escaping as org.json does. */
+        fun writeString(sink: BufferedSink, value: String) {
+            sink.writeByte('"'.code)
+            var runStart = 0
+            for (i in value.indices) {
+                val c = value[i]
+                val escape = when (c) {
+                    '"' -> "\\\""
+                    '\\' -> "\\\\"
+                    '/' -> "\\/"
+                    '\n' -> "\\n"
+                    '\r' -> "\\r"
+                    '\t' -> "\\t"
+                    '\b' -> "\\b"
+                    '\u000C' -> "\\f"
+                    else -> null
+                }
+                if (escape == null && c >= ' ' && c != '\u2028' && c != '\u2029') continue
+
+                if (i > runStart) sink.writeUtf8(value, runStart, i)
+                if (escape != null) {
+                    sink.writeUtf8(escape)
+                } else {
+                    sink.writeUtf8("\\u")
+                    for (shift in 12 downTo 0 step 4) sink.writeByte(HEX[(c.code shr shift) and 0xF].code)
+                }
+                runStart = i + 1
+            }
+            if (value.length > runStart) sink.writeUtf8(value, runStart, value.length)
+            sink.writeByte('"'.code)
+        }
+
+        /** Writes [millis] as `yyyy-MM-dd'T'HH:mm:ss.SSS'Z'` in UTC without allocating. */
+        fun writeIsoTimestamp(sink: BufferedSink, millis: Long) {
+            val days = Math.floorDiv(millis, MILLIS_PER_DAY)
+            var msOfDay = Math.floorMod(millis, MILLIS_PER_DAY)
+
+            // Civil date from days since the epoch (proleptic Gregorian)
+            val z = days + 719_468
+            val era = Math.floorDiv(z, 146_097L)
+            val doe = z - era * 146_097
+            val yoe = (doe - doe / 1460 + doe / 36_524 - doe / 146_096) / 365
+            val doy = doe - (365 * yoe + yoe / 4 - yoe / 100)
+            val mp = (5 * doy + 2) / 153
+            val day = doy - (153 * mp + 2) / 5 + 1
+            val month = if (mp < 10) mp + 3 else mp - 9
+            val year = yoe + era * 400 + if (month <= 2) 1 else 0
+
+            writeDigits(sink, year, 4)
+            sink.writeByte('-'.code)
+            writeDigits(sink, month, 2)
+            sink.writeByte('-'.code)
+            writeDigits(sink, day, 2)
+            sink.writeByte('T'.code)
+            writeDigits(sink, msOfDay / 3_600_000, 2)
+            msOfDay %= 3_600_000
+            sink.writeByte(':'.code)
+            writeDigits(sink, msOfDay / 60_000, 2)
+            msOfDay %= 60_000
+            sink.writeByte(':'.code)
+            writeDigits(sink, msOfDay / 1000, 2)
+            sink.writeByte('.'.code)
+            writeDigits(sink, msOfDay % 1000, 3)
+            sink.writeByte('Z'.code)
+        }
+
+        private fun writeDigits(sink: BufferedSink, value: Long, width: Int) {
+            var divisor = 1L
+            repeat(width - 1) { divisor *= 10 }
+            var v = value
+            // Wider values (years past 9999) keep all their digits
+            while (v / divisor >= 10) divisor *= 10
+            while (divisor > 0) {
+                sink.writeByte('0'.code + (v / divisor).toInt())
+                v %= divisor
+                divisor /= 10
+            }
+        }
+    }
+
+    // Everything after is_test's value: the device block and the closing braces
+    private val tail: ByteString = Buffer().apply {
+        writeUtf8(",\"device\":{\"manufacturer\":")
+        writeString(this, manufacturer.orEmpty())
+        writeUtf8(",\"model\":")
+        writeString(this, model.orEmpty())
+        writeUtf8(",\"sdk\":")
+        writeUtf8(sdk.toString())
+        writeUtf8("},\"microservice_version\":\"1.0.0\"}}")
+    }.readByteString()
+
+    fun writeTo(
+        sink: BufferedSink,
+        msgId: String,
+        sender: String,
+        message: String,
+        timestamp: Long,
+        subscriptionId: Int,
+        isTest: Boolean
+    ) {
+        sink.write(OPEN_MSG_ID)
+        writeString(sink, msgId)
+        sink.write(KEY_TEXT)
+        writeString(sink, message)
+        sink.write(KEY_TIMESTAMP)
+        writeIsoTimestamp(sink, timestamp)
+        sink.write(KEY_CONTACT)
+        writeString(sink, sender)
+        sink.write(KEY_METADATA)
+        sink.writeDecimalLong(subscriptionId.toLong())
+        sink.write(KEY_IS_TEST)
+        sink.writeUtf8(if (isTest) "true" else "false")
+        sink.write(tail)
+    }
+
+    /** Encodes one payload; the bytes can be shared by every destination of a message. */
+    fun encode(msgId: String, sender: String, message: String, timestamp: Long, subscriptionId: Int, isTest: Boolean): ByteString {
+        val buffer = Buffer()
+        writeTo(buffer, msgId, sender, message, timestamp, subscriptionId, isTest)
+        return buffer.readByteString()
+    }
+}
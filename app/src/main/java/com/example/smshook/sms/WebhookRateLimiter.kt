@@ -0,0 +1,127 @@
+package com.example.smshook.sms
+
+import com.example.smshook.fragments.WebhookConfig
+import okhttp3.Response
+import java.util.Date
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Per-webhook token buckets shared by every delivery thread in the process. Webhooks
+ * with a [WebhookConfig.rateLimit] get a bucket of that rate and burst; every webhook,
+ * limited or not, can be paused by a `Retry-After` answer, which empties its bucket
+ * until the given time.
+ */
+object WebhookRateLimiter {
+    // Pause applied to a 429 that carries no usable Retry-After
+    const val DEFAULT_RETRY_AFTER_MS = 1_000L
+    private const val MAX_RETRY_AFTER_MS = 60 * 60_000L
+
+    private class Bucket {
+        var ratePerMs = 0.0
+        var capacity = 0.0
+        var tokens = 0.0
+        var refilledAt = 0L
+        var pausedUntil = 0L
+
+        /** Brings the bucket up to date with [config]; unlimited buckets only carry pauses. */
+        fun configure(config: WebhookConfig, now: Long) {
+            val limit = config.rateLimit
+            val rate = limit?.effectiveRequestsPerSecond?.div(1000.0) ?: 0.0
+            val cap = limit?.effectiveBurst?.toDouble() ?: 0.0
+            if (rate != ratePerMs || cap != capacity) {
+                ratePerMs = rate
+                capacity = cap
+                tokens = cap
+                refilledAt = now
+            }
+        }
+
+        fun refill(now: Long) {
+            // refilledAt lies in the future while paused; tokens start accruing after the pause
+            if (now <= refilledAt) return
+            if (ratePerMs > 0) tokens = minOf(capacity, tokens + (now - refilledAt) * ratePerMs)
+            refilledAt = now
+        }
+
+        /** Milliseconds until a request may go out; 0 means now. */
+        fun delay(now: Long): Long {
+            if (now < pausedUntil) return pausedUntil - now
+            if (ratePerMs <= 0) return 0
+            return if (tokens >= 1.0) 0 else Math.ceil((1.0 - tokens) / ratePerMs).toLong().coerceAtLeast(1)
+        }
+    }
+
+    private val buckets = ConcurrentHashMap<String, Bucket>()
+
+    private fun bucketFor(config: WebhookConfig, now: Long): Bucket =
+        buckets.getOrPut(config.id) { Bucket() }.also { it.configure(config, now) }
+
+    /**
+     * Takes a token for [config], waiting up to [maxWaitMs] for one. Returns 0 on success,
+     * otherwise how long from now the caller should wait before trying again.
+     */
+    fun acquire(config: WebhookConfig, maxWaitMs: Long = 0L): Long {
+        val deadline = System.currentTimeMillis() + maxWaitMs
+        while (true) {
+            val now = System.currentTimeMillis()
+            val bucket = bucketFor(config, now)
+            val wait = synchronized(bucket) {
+                bucket.refill(now)
+                val delay = bucket.delay(now)
+                if (delay == 0L && bucket.ratePerMs > 0) bucket.tokens -= 1.0
+                delay
+            }
+            if (wait == 0L) return 0L
+            if (now + wait > deadline) return wait
+            try {
+                Thread.sleep(wait)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                return wait
+            }
+        }
+    }
+
+    /** How long until [config] would accept a request, without taking a token. */
+    fun delay(config: WebhookConfig): Long {
+        val now = System.currentTimeMillis()
+        val bucket = bucketFor(config, now)
+        return synchronized(bucket) {
+            bucket.refill(now)
+            bucket.delay(now)
+        }
+    }
+
+    /** Requests [config] would accept right now without waiting (Int.MAX_VALUE when unlimited). */
+    fun available(config: WebhookConfig): Int {
+        val now = System.currentTimeMillis()
+        val bucket = bucketFor(config, now)
+        return synchronized(bucket) {
+            bucket.refill(now)
+            when {
+                now < bucket.pausedUntil -> 0
+                bucket.ratePerMs <= 0 -> Int.MAX_VALUE
+                else -> bucket.tokens.toInt()
+            }
+        }
+    }
+
+    /** Stops requests to [config] for [pauseMs] (from a `Retry-After` or a bare 429). */
+    fun pause(config: WebhookConfig, pauseMs: Long) {
+        val now = System.currentTimeMillis()
+        val bucket = bucketFor(config, now)
+        synchronized(bucket) {
+            bucket.pausedUntil = maxOf(bucket.pausedUntil, now + pauseMs.coerceIn(0L, MAX_RETRY_AFTER_MS))
+            bucket.tokens = 0.0
+            bucket.refilledAt = maxOf(now, bucket.pausedUntil)
+        }
+    }
+
+    /** `Retry-After` in milliseconds (delta-seconds or HTTP date), or null when absent or unparsable. */
+    fun retryAfterMs(response: Response, now: Long = System.currentTimeMillis()): Long? {
+        val value = response.header("Retry-After")?.trim() ?: return null
+        value.toLongOrNull()?.let { return (it * 1000).coerceAtLeast(0L) }
+        val date: Date = response.headers.getDate("Retry-After") ?: return null
+        return (date.time - now).coerceAtLeast(0L)
+    }
+}
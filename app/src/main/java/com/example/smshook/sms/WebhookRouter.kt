@@ -0,0 +1,67 @@
+package com.example.smshook.sms
+
+import android.util.Log
+import com.example.smshook.fragments.WebhookConfig
+import com.example.smshook.fragments.WebhookRoute
+import com.example.smshook.utils.MultiPatternMatcher
+
+/**
+ * Routing table built from each webhook's [WebhookRoute]. Keyword and sender lists are
+ * compiled into matchers and regexes are compiled once, so routing a message costs one
+ * scan per route instead of re-parsing the rules. The router for the enabled webhooks
+ * is part of [com.example.smshook.config.ForwardingConfig].
+ */
+class WebhookRouter private constructor(private val routes: List<CompiledRoute>) {
+
+    private class CompiledRoute(
+        val config: WebhookConfig,
+        val senders: MultiPatternMatcher?,
+        val keywords: MultiPatternMatcher?,
+        val regex: Regex?,
+        val regexInvalid: Boolean,
+        val subscriptionIds: Set<Int>?,
+        val testMessages: Boolean?
+    ) {
+        fun matches(sms: InboundSms): Boolean {
+            if (testMessages != null && testMessages != sms.isTest) return false
+            if (subscriptionIds != null && sms.subscriptionId !in subscriptionIds) return false
+            if (regexInvalid) return false
+            if (senders != null && senders.scan(sms.from, 1) == 0) return false
+            if (keywords != null && keywords.scan(sms.body, 1) == 0) return false
+            if (regex != null && !regex.containsMatchIn(sms.body)) return false
+            return true
+        }
+    }
+
+    companion object {
+        fun compile(configs: List<WebhookConfig>): WebhookRouter =
+            WebhookRouter(configs.map { compileRoute(it, it.route) })
+
+        private fun compileRoute(config: WebhookConfig, route: WebhookRoute?): CompiledRoute {
+            val senders = route?.senders.orEmpty().map { it.trim() }.filter { it.isNotEmpty() }
+            val keywords = route?.keywords.orEmpty().map { it.trim() }.filter { it.isNotEmpty() }
+            val pattern = route?.bodyRegex?.takeIf { it.isNotBlank() }
+            val regex = pattern?.let {
+                try {
+                    Regex(it)
+                } catch (e: Exception) {
+                    Log.w("ZeusSMS", "Invalid route regex for webhook ${config.name}; it will receive nothing", e)
+                    null
+                }
+            }
+            return CompiledRoute(
+                config = config,
+                senders = senders.takeIf { it.isNotEmpty() }?.let { list -> MultiPatternMatcher(list.map { it to 1 }) },
+                keywords = keywords.takeIf { it.isNotEmpty() }?.let { list -> MultiPatternMatcher(list.map { it to 1 }) },
+                regex = regex,
+                regexInvalid = pattern != null && regex == null,
+                subscriptionIds = route?.subscriptionIds?.takeIf { it.isNotEmpty() }?.toSet(),
+                testMessages = route?.testMessages
+            )
+        }
+    }
+
+    /** Webhooks that [sms] should be delivered to, in configuration order. */
+    fun destinationsFor(sms: InboundSms): List<WebhookConfig> =
+        routes.filter { it.matches(sms) }.map { it.config }
+}
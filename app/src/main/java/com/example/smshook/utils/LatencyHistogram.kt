@@ -0,0 +1,68 @@
+package com.example.smshook.utils
+
+/**
+ * Rolling latency histogram with geometric buckets (10 ms growing by 25% per bucket, up
+ * to several minutes). Samples go into the current window; once it holds [windowSize]
+ * samples it replaces the previous one, so percentiles cover the last one to two windows
+ * and older behaviour ages out. Percentiles are reported as the bucket's upper bound,
+ * i.e. at most 25% above the true value. Thread-safe.
+ */
+class LatencyHistogram(private val windowSize: Int = 256) {
+
+    companion object {
+        private const val BUCKET_COUNT = 48
+        private const val FIRST_BOUND_MS = 10.0
+        private const val GROWTH = 1.25
+
+        private val upperBounds = LongArray(BUCKET_COUNT) { i ->
+            Math.ceil(FIRST_BOUND_MS * Math.pow(GROWTH, i.toDouble())).toLong()
+        }
+    }
+
+    private var current = IntArray(BUCKET_COUNT)
+    private var previous = IntArray(BUCKET_COUNT)
+    private var currentCount = 0
+    private var previousCount = 0
+
+    @Synchronized
+    fun record(latencyMs: Long) {
+        if (currentCount >= windowSize) {
+            val recycled = previous
+            previous = current
+            previousCount = currentCount
+            recycled.fill(0)
+            current = recycled
+            currentCount = 0
+        }
+        current[bucketOf(latencyMs)]++
+        currentCount++
+    }
+
+    @Synchronized
+    fun count(): Int = currentCount + previousCount
+
+    /** Latency at quantile [q] (0..1) over the retained windows, or -1 with no samples. */
+    @Synchronized
+    fun percentile(q: Double): Long {
+        val total = currentCount + previousCount
+        if (total == 0) return -1
+        val rank = Math.ceil(q.coerceIn(0.0, 1.0) * total).toLong().coerceAtLeast(1)
+        var seen = 0L
+        for (i in 0 until BUCKET_COUNT) {
+            seen += current[i] + previous[i]
+            if (seen >= rank) return upperBounds[i]
+        }
+        return upperBounds[BUCKET_COUNT - 1]
+    }
+
+    private fun bucketOf(latencyMs: Long): Int {
+        // Binary search for the first bucket whose bound holds the sample; overflow goes to the last
+        var lo = 0
+        var hi = BUCKET_COUNT - 1
+        while (lo < hi) {
+            val mid = (lo + hi) ushr 1
+            if (upperBounds[mid] >= latencyMs) hi = mid else lo = mid + 1
+        }
+        return lo
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.smshook.utils
+
+/**
+ * Open-addressing hash map from `Long` to `Int` without boxing. Uses linear probing
+ * with backward-shift deletion, so there are no tombstones to clean up.
+ *
+ * Key `0` is reserved as the empty-slot marker and cannot be stored.
+ */
+class LongIntMap(expectedSize: Int = 16) {
+
+    private var keys: LongArray
+    private var values: IntArray
+    private var mask: Int
+
+    var size = 0
+        private set
+
+    init {
+        val capacity = tableSizeFor(expectedSize * 2)
+        keys = LongArray(capacity)
+        values = IntArray(capacity)
+        mask = capacity - 1
+    }
+
+    /** Returns the value for [key], or [missing] when absent. */
+    fun get(key: Long, missing: Int = -1): Int {
+        var i = slotOf(key)
+        while (true) {
+            val k = keys[i]
+            if (k == key) return values[i]
+            if (k == EMPTY) return missing
+            i = (i + 1) and mask
+        }
+    }
+
+    fun put(key: Long, value: Int) {
+        require(key != EMPTY) { "Key 0 is reserved" }
+        var i = slotOf(key)
+        while (true) {
+            val k = keys[i]
+            if (k == key) {
+                values[i] = value
+                return
+            }
+            if (k == EMPTY) {
+                keys[i] = key
+                values[i] = value
+                if (++size * 2 > keys.size) grow()
+                return
+            }
+            i = (i + 1) and mask
+        }
+    }
+
+    /** Removes [key] and returns its value, or [missing] when absent. */
+    fun remove(key: Long, missing: Int = -1): Int {
+        var i = slotOf(key)
+        while (true) {
+            val k = keys[i]
+            if (k == EMPTY) return missing
+            if (k == key) break
+            i = (i + 1) and mask
+        }
+        val removed = values[i]
+
+        // Shift following entries of the probe run back into the hole
+        var hole = i
+        var j = i
+        while (true) {
+            j = (j + 1) and mask
+            val k = keys[j]
+            if (k == EMPTY) break
+            val home = slotOf(k)
+            val stays = if (hole <= j) home in (hole + 1)..j else home in (hole + 1)..mask || home <= j
+            if (!stays) {
+                keys[hole] = k
+                values[hole] = values[j]
+                hole = j
+            }
+        }
+        keys[hole] = EMPTY
+        size--
+        return removed
+    }
+
+    fun clear() {
+        keys.fill(EMPTY)
+        size = 0
+    }
+
+    private fun grow() {
+        val oldKeys = keys
+        val oldValues = values
+        keys = LongArray(oldKeys.size * 2)
+        values = IntArray(oldValues.size * 2)
+        mask = keys.size - 1
+        size = 0
+        for (i in oldKeys.indices) {
+            if (oldKeys[i] != EMPTY) put(oldKeys[i], oldValues[i])
+        }
+    }
+
+    private fun slotOf(key: Long): Int {
+        val h = key * -0x61c8864680b583ebL
+        return (h xor (h ushr 32)).toInt() and mask
+    }
+
+    private companion object {
+        const val EMPTY = 0L
+
+        fun tableSizeFor(n: Int): Int {
+            var capacity = 4
+            while (capacity < n) capacity = capacity shl 1
+            return capacity
+        }
+    }
+}
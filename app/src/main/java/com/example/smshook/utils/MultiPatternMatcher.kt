@@ -0,0 +1,92 @@
+package com.example.smshook.utils
+
+/**
+ * Aho-Corasick matcher over case-folded text. Each pattern carries a bit flag; [scan]
+ * walks the text once and returns the OR of the flags of every pattern that occurs in
+ * it, so the cost is linear in the text no matter how many patterns there are.
+ */
+class MultiPatternMatcher(patterns: Collection<Pair<String, Int>>) {
+
+    // Per node: sorted edge labels and their targets, failure link and output flags
+    private val edgeChars: Array<CharArray>
+    private val edgeTargets: Array<IntArray>
+    private val fail: IntArray
+    private val output: IntArray
+
+    val isEmpty: Boolean
+
+    init {
+        val children = ArrayList<HashMap<Char, Int>>().apply { add(HashMap()) }
+        val flags = ArrayList<Int>().apply { add(0) }
+        for ((pattern, flag) in patterns) {
+            if (pattern.isEmpty()) continue
+            var node = 0
+            for (c in pattern) {
+                val folded = fold(c)
+                node = children[node][folded] ?: run {
+                    children.add(HashMap())
+                    flags.add(0)
+                    children[node][folded] = children.lastIndex
+                    children.lastIndex
+                }
+            }
+            flags[node] = flags[node] or flag
+        }
+
+        val count = children.size
+        edgeChars = Array(count) { n -> children[n].keys.sorted().toCharArray() }
+        edgeTargets = Array(count) { n -> IntArray(edgeChars[n].size) { i -> children[n][edgeChars[n][i]]!! } }
+        fail = IntArray(count)
+        output = IntArray(count) { flags[it] }
+        isEmpty = count == 1
+
+        // Breadth-first so a node's failure target is final before its children are visited
+        val queue = ArrayDeque<Int>()
+        edgeTargets[0].forEach { queue.addLast(it) }
+        while (queue.isNotEmpty()) {
+            val node = queue.removeFirst()
+            output[node] = output[node] or output[fail[node]]
+            for (i in edgeChars[node].indices) {
+                val child = edgeTargets[node][i]
+                var f = fail[node]
+                var target = step(f, edgeChars[node][i])
+                while (target < 0 && f != 0) {
+                    f = fail[f]
+                    target = step(f, edgeChars[node][i])
+                }
+                fail[child] = if (target >= 0 && target != child) target else 0
+                queue.addLast(child)
+            }
+        }
+    }
+
+    /**
+     * Returns the flags of all patterns found in [text]. Stops early once any bit of
+     * [stopMask] has been found.
+     */
+    fun scan(text: CharSequence, stopMask: Int = 0): Int {
+        if (isEmpty) return 0
+        var found = 0
+        var node = 0
+        for (i in text.indices) {
+            val c = fold(text[i])
+            var next = step(node, c)
+            while (next < 0 && node != 0) {
+                node = fail[node]
+                next = step(node, c)
+            }
+            node = if (next < 0) 0 else next
+            found = found or output[node]
+            if (found and stopMask != 0) break
+        }
+        return found
+    }
+
+    private fun step(node: Int, c: Char): Int {
+        val chars = edgeChars[node]
+        val i = chars.binarySearch(c)
+        return if (i >= 0) edgeTargets[node][i] else -1
+    }
+
+    private fun fold(c: Char): Char = Character.toLowerCase(Character.toUpperCase(c))
+}
@@ -25,14 +25,14 @@ class RunJobWorker(
         
         try {
             Log.d(TAG, "Starting USSD job: $jobId")
-            LogManager.addLog(LogLevel.USSD, TAG, "Starting USSD job", "Job ID: $jobId")
+            LogManager.log(LogLevel.USSD, TAG, "Starting USSD job") { "Job ID: $jobId" }
             
             // 1) Pull full job details from server with timeout handling
             val job = try {
                 ZeusApi.getJob(applicationContext, jobId)
             } catch (e: Exception) {
                 Log.e(TAG, "Failed to fetch job details: ${e.message}", e)
-                LogManager.addLog(LogLevel.ERROR, TAG, "Failed to fetch job details", "Error: ${e.message}, Type: ${e.javaClass.simpleName}")
+                LogManager.log(LogLevel.ERROR, TAG, "Failed to fetch job details") { "Error: ${e.message}, Type: ${e.javaClass.simpleName}" }
                 
                 // Send error response back to server
                 sendJobFailureResponse(jobId, "Failed to fetch job details: ${e.message}", e.javaClass.simpleName)
@@ -40,7 +40,7 @@ class RunJobWorker(
             }
             
             Log.d(TAG, "Job details: ${job.seq}")
-            LogManager.addLog(LogLevel.USSD, TAG, "Job details received", "Sequence: ${job.seq}")
+            LogManager.log(LogLevel.USSD, TAG, "Job details received") { "Sequence: ${job.seq}" }
             
             // 2) Build sequence string the same way as the test button
             val sequence: String = when {
@@ -60,25 +60,28 @@ class RunJobWorker(
             }
 
             Log.d(TAG, "Built sequence: $sequence")
-            LogManager.addLog(LogLevel.USSD, TAG, "Built USSD sequence", "Sequence: $sequence")
+            LogManager.log(LogLevel.USSD, TAG, "Built USSD sequence") { "Sequence: $sequence" }
 
             // Use the SIM slot from the job, default to 0 if not specified
             val simSlot = job.simSlot ?: 0
             Log.d(TAG, "Using SIM slot: $simSlot")
-            LogManager.addLog(LogLevel.USSD, TAG, "Using SIM slot", "Slot: $simSlot")
+            LogManager.log(LogLevel.USSD, TAG, "Using SIM slot") { "Slot: $simSlot" }
 
             val outcome = UssdRunner.run(applicationContext, sequence, simSlot)
             Log.d(TAG, "USSD execution result: $outcome")
             
             // Log step-by-step results
-            outcome.steps.forEach { step ->
-                val stepStatus = if (step.success) "✅" else "❌"
-                LogManager.addLog(LogLevel.USSD, TAG, "Step ${step.stepNumber}: $stepStatus", 
-                    "Input: ${step.stepInput} -> Response: ${step.response.take(100)}...")
+            if (LogManager.isLoggable(LogLevel.USSD)) {
+                outcome.steps.forEach { step ->
+                    val stepStatus = if (step.success) "✅" else "❌"
+                    LogManager.addLog(LogLevel.USSD, TAG, "Step ${step.stepNumber}: $stepStatus",
+                        "Input: ${step.stepInput} -> Response: ${step.response.take(100)}...")
+                }
             }
             
-            LogManager.addLog(LogLevel.USSD, TAG, "USSD execution completed", 
-                "Overall Success: ${outcome.success}, Steps: ${outcome.steps.size}, Final Response: ${outcome.response.take(50)}...")
+            LogManager.log(LogLevel.USSD, TAG, "USSD execution completed") {
+                "Overall Success: ${outcome.success}, Steps: ${outcome.steps.size}, Final Response: ${outcome.response.take(50)}..."
+            }
             
             // 3) Send result back to server
             ZeusApi.completeJob(applicationContext, jobId, outcome)
@@ -87,12 +90,12 @@ class RunJobWorker(
             ZeusApi.sendUssdResponse(applicationContext, jobId, outcome.response, outcome.success, outcome.steps)
             
             Log.d(TAG, "Job completed successfully: $jobId")
-            LogManager.addLog(LogLevel.USSD, TAG, "Job completed successfully", "Job ID: $jobId")
+            LogManager.log(LogLevel.USSD, TAG, "Job completed successfully") { "Job ID: $jobId" }
             Result.success()
             
         } catch (e: Exception) {
             Log.e(TAG, "Job failed: ${e.message}", e)
-            LogManager.addLog(LogLevel.ERROR, TAG, "Job failed", "Error: ${e.message}, Type: ${e.javaClass.simpleName}")
+            LogManager.log(LogLevel.ERROR, TAG, "Job failed") { "Error: ${e.message}, Type: ${e.javaClass.simpleName}" }
             
             // Send error response back to server
             sendJobFailureResponse(jobId, e.message ?: "Unknown error", e.javaClass.simpleName)
@@ -107,7 +110,7 @@ class RunJobWorker(
     private suspend fun sendJobFailureResponse(jobId: String, errorMessage: String, errorType: String) {
         try {
             Log.d(TAG, "Sending job failure response for job: $jobId")
-            LogManager.addLog(LogLevel.API, TAG, "Sending job failure response", "Job ID: $jobId, Error: $errorMessage")
+            LogManager.log(LogLevel.API, TAG, "Sending job failure response") { "Job ID: $jobId, Error: $errorMessage" }
             
             // Create a failure outcome
             val failureOutcome = mapOf(
@@ -131,11 +134,11 @@ class RunJobWorker(
             )
             
             Log.d(TAG, "Job failure response sent successfully: $jobId")
-            LogManager.addLog(LogLevel.API, TAG, "Job failure response sent successfully", "Job ID: $jobId")
+            LogManager.log(LogLevel.API, TAG, "Job failure response sent successfully") { "Job ID: $jobId" }
             
         } catch (e: Exception) {
             Log.e(TAG, "Failed to send job failure response: ${e.message}", e)
-            LogManager.addLog(LogLevel.ERROR, TAG, "Failed to send job failure response", "Error: ${e.message}")
+            LogManager.log(LogLevel.ERROR, TAG, "Failed to send job failure response") { "Error: ${e.message}" }
         }
     }
 }
@@ -2,6 +2,7 @@ package com.example.smshook
 
 import com.example.smshook.fragments.WebhookConfig
 import com.example.smshook.fragments.ConfigurationFragment
+import com.example.smshook.sms.DeliveryPolicy
 import org.junit.Test
 import org.junit.Assert.*
 
@@ -109,8 +110,14 @@ class WebhookTest {
         println("✅ Webhook data structure test passed")
         println("   - Webhook: ${webhook.name} -> ${webhook.url}")
     }
-}
-
-
 
+    @Test
+    fun testDeliveryPolicyParsing() {
+        assertEquals(DeliveryPolicy.ANY, DeliveryPolicy.fromPref(null))
+        assertEquals(DeliveryPolicy.ALL, DeliveryPolicy.fromPref("all"))
+        assertEquals(DeliveryPolicy.FIRST_N, DeliveryPolicy.fromPref("first_n"))
+        assertEquals(DeliveryPolicy.ANY, DeliveryPolicy.fromPref("unknown"))
 
+        println("✅ Delivery policy parsing test passed")
+    }
+}
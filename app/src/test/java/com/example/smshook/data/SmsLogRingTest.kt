@@ -0,0 +1,45 @@
+package com.example.smshook.data
+
+import com.example.smshook.utils.LongIntMap
+import org.junit.Test
+import org.junit.Assert.*
+
+class SmsLogRingTest {
+
+    private fun entry(id: Long) = SmsLogEntry(
+        id = id,
+        sender = "+100$id",
+        message = "message $id",
+        timestamp = id,
+        subscriptionId = 0,
+        status = ForwardingStatus.PENDING
+    )
+
+    @Test
+    fun testRingEvictsOldestAndKeepsIndex() {
+        val ring = SmsLogRing(3)
+        assertNull(ring.add(entry(1)))
+        assertNull(ring.add(entry(2)))
+        assertNull(ring.add(entry(3)))
+
+        val evicted = ring.add(entry(4))
+        assertEquals(1L, evicted?.id)
+        assertNull(ring[1])
+        assertEquals(4L, ring[4]?.id)
+        assertEquals(listOf(2L, 3L, 4L), ring.toList().map { it.id })
+        assertEquals(3, ring.size)
+    }
+
+    @Test
+    fun testLongIntMapRemoveKeepsProbeChains() {
+        val map = LongIntMap(4)
+        for (key in 1L..1000L) map.put(key, key.toInt() * 2)
+        for (key in 1L..1000L step 3) assertEquals(key.toInt() * 2, map.remove(key))
+
+        for (key in 1L..1000L) {
+            val expected = if ((key - 1) % 3 == 0L) -1 else key.toInt() * 2
+            assertEquals(expected, map.get(key))
+        }
+        assertEquals(1000 - 334, map.size)
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.smshook.logs
+
+import org.junit.Test
+import org.junit.Assert.*
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+
+class LogEntryTest {
+
+    @Test
+    fun testCachedTimeFormatMatchesSimpleDateFormat() {
+        val reference = SimpleDateFormat("HH:mm:ss.SSS", Locale.getDefault())
+        val base = 1_700_000_000_000L
+        // Same second (cached text reused), next second, and millis needing padding
+        for (timestamp in listOf(base + 5, base + 999, base + 1_042, base + 61_000, base - 1)) {
+            val entry = LogEntry(timestamp = timestamp, level = LogLevel.INFO, tag = "t", message = "m")
+            assertEquals(reference.format(Date(timestamp)), entry.formattedTime)
+        }
+    }
+
+    @Test
+    fun testRender() {
+        val entry = LogEntry(timestamp = 0L, level = LogLevel.USSD, tag = "RunJobWorker", message = "Step 1", details = "Input: 1")
+        assertEquals("[USSD] RunJobWorker: Step 1 Input: 1", entry.render(withTime = false))
+        assertTrue(entry.render().endsWith(" [USSD] RunJobWorker: Step 1 Input: 1"))
+        assertTrue(LogLevel.ERROR.severity > LogLevel.USSD.severity && LogLevel.USSD.severity > LogLevel.DEBUG.severity)
+    }
+}
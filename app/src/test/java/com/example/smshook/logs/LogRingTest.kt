@@ -0,0 +1,56 @@
+package com.example.smshook.logs
+
+import org.junit.Test
+import org.junit.Assert.*
+import java.util.concurrent.CountDownLatch
+
+class LogRingTest {
+
+    private fun entry(n: Int) = LogEntry(timestamp = n.toLong(), level = LogLevel.INFO, tag = "test", message = "line $n")
+
+    @Test
+    fun testRingOverwritesOldestAndReadsFromCursor() {
+        val ring = LogRing(4)
+        for (n in 0 until 3) ring.add(entry(n))
+
+        val first = ring.readFrom(0)
+        assertEquals(listOf("line 0", "line 1", "line 2"), first.entries.map { it.message })
+        assertEquals(3L, first.next)
+
+        for (n in 3 until 9) ring.add(entry(n))
+        assertEquals(listOf("line 5", "line 6", "line 7", "line 8"), ring.snapshot().map { it.message })
+
+        // Entries 3 and 4 were overwritten before this reader caught up
+        val second = ring.readFrom(first.next)
+        assertEquals(2L, second.missed)
+        assertEquals(listOf("line 5", "line 6", "line 7", "line 8"), second.entries.map { it.message })
+        assertEquals(9L, second.next)
+
+        ring.clear()
+        assertTrue(ring.snapshot().isEmpty())
+        ring.add(entry(9))
+        assertEquals(listOf("line 9"), ring.readFrom(second.next).entries.map { it.message })
+    }
+
+    @Test
+    fun testConcurrentWritersKeepEveryEntryOnce() {
+        val ring = LogRing(4096)
+        val threads = 8
+        val perThread = 500
+        val start = CountDownLatch(1)
+        val writers = (0 until threads).map { t ->
+            Thread {
+                start.await()
+                for (n in 0 until perThread) ring.add(entry(t * perThread + n))
+            }.apply { start() }
+        }
+        start.countDown()
+        writers.forEach { it.join() }
+
+        val read = ring.readFrom(0)
+        assertEquals(0L, read.missed)
+        assertEquals((0 until threads * perThread).toSet(), read.entries.map { it.timestamp.toInt() }.toSet())
+        assertEquals(threads * perThread, read.entries.size)
+        assertEquals(threads * perThread, ring.size)
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.smshook.net
+
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.toResponseBody
+import org.junit.Test
+import org.junit.Assert.*
+
+class ResponseDrainerTest {
+
+    private fun response(body: String) = Response.Builder()
+        .request(Request.Builder().url("https://example.com/hook").build())
+        .protocol(Protocol.HTTP_1_1)
+        .code(500)
+        .message("Internal Server Error")
+        .body(body.toResponseBody())
+        .build()
+
+    @Test
+    fun testKeepsSnippetAndReadsToEnd() {
+        val body = "{\"error\":\"database unavailable\"}" + " ".repeat(20_000)
+        val drained = ResponseDrainer.drain(response(body), snippetBytes = 16, limitBytes = 64 * 1024)
+        assertEquals("{\"error\":\"databa", drained.snippet)
+        assertEquals(body.length.toLong(), drained.bytesRead)
+        assertTrue(drained.complete)
+    }
+
+    @Test
+    fun testStopsAtLimit() {
+        val drained = ResponseDrainer.drain(response("x".repeat(100_000)), snippetBytes = 4, limitBytes = 10_000)
+        assertEquals("xxxx", drained.snippet)
+        assertEquals(10_000L, drained.bytesRead)
+        assertFalse(drained.complete)
+    }
+
+    @Test
+    fun testBlankBodyHasNoSnippet() {
+        val drained = ResponseDrainer.drain(response("  \n"))
+        assertNull(drained.snippet)
+        assertTrue(drained.complete)
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.smshook.sms
+
+import org.junit.Test
+import org.junit.Assert.*
+import java.io.File
+
+class SmsDedupIndexTest {
+
+    private fun tempIndexFile(): File = File.createTempFile("sms_dedup", ".idx").apply {
+        delete()
+        deleteOnExit()
+    }
+
+    @Test
+    fun testDuplicateSuppressedWithinWindow() {
+        val index = SmsDedupIndex(tempIndexFile())
+        val now = 1_700_000_000_000L
+
+        assertTrue(index.recordIfNew("+1555", "Your code is 1234", 42L, now))
+        assertFalse(index.recordIfNew("+1555", "Your code is 1234", 42L, now + 1000))
+        // Different PDU timestamp or body is a different message
+        assertTrue(index.recordIfNew("+1555", "Your code is 1234", 43L, now + 1000))
+        assertTrue(index.recordIfNew("+1555", "Your code is 1235", 42L, now + 1000))
+        // Outside the window the same message is accepted again
+        assertTrue(index.recordIfNew("+1555", "Your code is 1234", 42L, now + SmsDedupIndex.WINDOW_MS + 1))
+    }
+
+    @Test
+    fun testContainsDoesNotRecord() {
+        val index = SmsDedupIndex(tempIndexFile())
+        val now = 1_700_000_000_000L
+
+        // A message checked but never stored is still new when redelivered
+        assertFalse(index.contains("+1555", "Your code is 1234", 42L, now))
+        assertFalse(index.contains("+1555", "Your code is 1234", 42L, now + 1000))
+        index.record("+1555", "Your code is 1234", 42L, now + 1000)
+        assertTrue(index.contains("+1555", "Your code is 1234", 42L, now + 2000))
+    }
+
+    @Test
+    fun testIndexSurvivesReopen() {
+        val file = tempIndexFile()
+        val now = 1_700_000_000_000L
+        assertTrue(SmsDedupIndex(file).recordIfNew("BANK", "Balance 10", 7L, now))
+        assertFalse(SmsDedupIndex(file).recordIfNew("BANK", "Balance 10", 7L, now + 5000))
+    }
+}
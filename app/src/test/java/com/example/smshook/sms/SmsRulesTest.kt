@@ -0,0 +1,81 @@
+package com.example.smshook.sms
+
+import com.example.smshook.fragments.WebhookConfig
+import com.example.smshook.fragments.WebhookRoute
+import com.example.smshook.utils.MultiPatternMatcher
+import org.junit.Test
+import org.junit.Assert.*
+
+class SmsRulesTest {
+
+    @Test
+    fun testMatcherFindsOverlappingPatternsCaseInsensitively() {
+        val matcher = MultiPatternMatcher(listOf("he" to 1, "she" to 2, "hers" to 4, "his" to 8))
+        assertEquals(1 or 2 or 4, matcher.scan("uSHErs"))
+        assertEquals(8, matcher.scan("this"))
+        assertEquals(0, matcher.scan("nothing"))
+    }
+
+    @Test
+    fun testRulesEvaluateSenderIncludesAndExcludes() {
+        val rules = SmsRules.compile("bank, MPESA", "otp,code", "promo")
+        assertTrue(rules.allows("MPESA", "Your OTP is 1234"))
+        assertFalse(rules.allows("+15550100", "Your OTP is 1234"))
+        assertFalse(rules.allows("MyBank", "Promo code inside"))
+        assertFalse(rules.allows("MyBank", "Balance updated"))
+
+        val open = SmsRules.compile("", " , ", null)
+        assertTrue(open.allows("anyone", "anything"))
+    }
+
+    @Test
+    fun testRouterSelectsMatchingWebhooks() {
+        val otp = WebhookConfig("otp", "OTP", "https://otp.example.com", route = WebhookRoute(keywords = listOf("otp")))
+        val sim2 = WebhookConfig("sim2", "SIM 2", "https://sim2.example.com", route = WebhookRoute(subscriptionIds = listOf(2)))
+        val bank = WebhookConfig("bank", "Bank", "https://bank.example.com", route = WebhookRoute(senders = listOf("bank"), bodyRegex = "\\d{4}"))
+        val tests = WebhookConfig("tests", "Tests", "https://tests.example.com", route = WebhookRoute(testMessages = true))
+        val all = WebhookConfig("all", "All", "https://all.example.com")
+        val router = WebhookRouter.compile(listOf(otp, sim2, bank, tests, all))
+
+        val sms = InboundSms(from = "MyBank", body = "Your OTP is 4821", timestamp = 0L, subscriptionId = 1)
+        assertEquals(listOf("otp", "bank", "all"), router.destinationsFor(sms).map { it.id })
+
+        val test = InboundSms(from = "+1555", body = "hello", timestamp = 0L, subscriptionId = 2, isTest = true)
+        assertEquals(listOf("sim2", "tests", "all"), router.destinationsFor(test).map { it.id })
+    }
+
+    @Test
+    fun testLaneClassifierDetectsOtpAndExpressRules() {
+        val lanes = LaneClassifier.compile("alerts", "urgent", detectOtp = true)
+
+        assertEquals(SmsLane.EXPRESS, lanes.classify("+1555", "Your verification code is 482 913"))
+        assertEquals(SmsLane.EXPRESS, lanes.classify("+1555", "G-582014 is your Google code"))
+        assertEquals(SmsLane.EXPRESS, lanes.classify("ALERTS", "Weekly digest"))
+        assertEquals(SmsLane.EXPRESS, lanes.classify("+1555", "URGENT: call back"))
+        // A code keyword without a standalone code, or digits without a keyword, stay normal
+        assertEquals(SmsLane.NORMAL, lanes.classify("+1555", "Use promo code SALE2024 today"))
+        assertEquals(SmsLane.NORMAL, lanes.classify("+1555", "Order 12345 has shipped"))
+
+        val noOtp = LaneClassifier.compile(null, null, detectOtp = false)
+        assertEquals(SmsLane.NORMAL, noOtp.classify("+1555", "Your OTP is 4821"))
+    }
+
+    @Test
+    fun testLaneClassifierIgnoresDatesPhonesAndPromoCodes() {
+        val lanes = LaneClassifier.compile(null, null, detectOtp = true)
+
+        assertEquals(SmsLane.EXPRESS, lanes.classify("+1555", "Your PIN is 4821"))
+        // Dates, times, amounts and phone numbers are not codes
+        assertEquals(SmsLane.NORMAL, lanes.classify("SHOP", "Use code SPRING on 2024-05-01"))
+        assertEquals(SmsLane.NORMAL, lanes.classify("SHOP", "Promo code valid until 01/06/2024"))
+        assertEquals(SmsLane.NORMAL, lanes.classify("BANK", "PIN reset? Call 0800 1234"))
+        assertEquals(SmsLane.NORMAL, lanes.classify("BANK", "Forgot your PIN? Call +44 2079 4600"))
+        assertEquals(SmsLane.NORMAL, lanes.classify("SHOP", "Code SAVE: 1,250.00 off until 12:30"))
+        assertEquals(SmsLane.NORMAL, lanes.classify("SHOP", "Use code 2024 for 20% off"))
+        // A bare "code" far away from the number does not count
+        assertEquals(SmsLane.NORMAL, lanes.classify("SHOP", "Show this code at any of our stores and save 4500 points"))
+        // Even a strong hint needs a real code
+        assertEquals(SmsLane.NORMAL, lanes.classify("+1555", "Verify your appointment on 2024-05-01"))
+        assertEquals(SmsLane.NORMAL, lanes.classify("+1555", "Verify your details by 2024"))
+    }
+}
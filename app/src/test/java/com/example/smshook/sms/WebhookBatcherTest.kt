@@ -0,0 +1,28 @@
+package com.example.smshook.sms
+
+import org.junit.Test
+import org.junit.Assert.*
+
+class WebhookBatcherTest {
+
+    private val ids = listOf("a", "b", "c")
+
+    @Test
+    fun testBodyWithoutResultsAcknowledgesEveryItem() {
+        assertEquals(listOf(true, true, true), WebhookBatcher.acknowledgements("OK", complete = true, msgIds = ids))
+        assertEquals(listOf(true, true, true), WebhookBatcher.acknowledgements(null, complete = true, msgIds = ids))
+    }
+
+    @Test
+    fun testPerItemResultsMatchByMsgIdAndLeaveGapsUnacknowledged() {
+        val body = """{"results":[{"msgId":"c","success":false},{"msgId":"a","status":202}]}"""
+        assertEquals(listOf(true, null, false), WebhookBatcher.acknowledgements(body, complete = true, msgIds = ids))
+    }
+
+    @Test
+    fun testTruncatedResultsBodyAcknowledgesNothing() {
+        // The start of a results array cut off at the read limit does not parse
+        val body = """[{"msgId":"a","success":true},{"msgId":"b","succ"""
+        assertEquals(listOf(null, null, null), WebhookBatcher.acknowledgements(body, complete = false, msgIds = ids))
+    }
+}
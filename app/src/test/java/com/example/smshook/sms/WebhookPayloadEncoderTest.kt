@@ -0,0 +1,90 @@
+package com.example.smshook.sms
+
+import com.google.gson.JsonParser
+import org.json.JSONObject
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import org.junit.Assert.*
+import java.lang.management.ManagementFactory
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.TimeZone
+
+class WebhookPayloadEncoderTest {
+
+    private val encoder = WebhookPayloadEncoder("Acme", "Phone \"X\"", 34)
+
+    /** The JSONObject-based payload builder the encoder replaced, kept for comparison. */
+    private fun legacyPayload(msgId: String, sender: String, message: String, timestamp: Long, subscriptionId: Int, isTest: Boolean): String {
+        val isoTimestamp = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US).apply {
+            timeZone = TimeZone.getTimeZone("UTC")
+        }.format(Date(timestamp))
+        val rcsMessage = JSONObject().apply {
+            put("msgId", msgId)
+            put("textMessage", message)
+            put("timestamp", isoTimestamp)
+        }
+        val messageContact = JSONObject().apply {
+            put("userContact", sender)
+        }
+        return JSONObject().apply {
+            put("RCSMessage", rcsMessage)
+            put("messageContact", messageContact)
+            put("event", "message")
+            put("zeus_metadata", JSONObject().apply {
+                put("service", "zeus-sms-microservice")
+                put("subscription_id", subscriptionId)
+                put("is_test", isTest)
+                put("device", JSONObject().apply {
+                    put("manufacturer", "Acme")
+                    put("model", "Phone \"X\"")
+                    put("sdk", 34)
+                })
+                put("microservice_version", "1.0.0")
+            })
+        }.toString()
+    }
+
+    @Test
+    fun testEncodedPayloadMatchesLegacyPayload() {
+        val cases = listOf(
+            0L to "plain",
+            1_700_000_123_456L to "Line1\nLine2\t\"quoted\" back\\slash </tag> \u0001   ünïcödé 😀",
+            951_782_400_000L to "leap day", // 2000-02-29
+            -86_400_001L to "before epoch"
+        )
+        for ((timestamp, body) in cases) {
+            val expected = legacyPayload("zeus_1_abc", "+15550100", body, timestamp, 2, true)
+            val actual = encoder.encode("zeus_1_abc", "+15550100", body, timestamp, 2, true).utf8()
+            assertEquals(JsonParser.parseString(expected), JsonParser.parseString(actual))
+        }
+    }
+
+    @Test
+    fun benchmarkAllocationsAgainstLegacyPayload() {
+        val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported)
+        threads!!.isThreadAllocatedMemoryEnabled = true
+
+        val body = "Your verification code is 482193. It expires in 10 minutes. Do not share it with anyone."
+        val iterations = 20_000
+        fun allocatedPerOp(block: (Int) -> Unit): Long {
+            repeat(2_000) { block(it) } // warm-up
+            val threadId = Thread.currentThread().id
+            val before = threads.getThreadAllocatedBytes(threadId)
+            repeat(iterations) { block(it) }
+            return (threads.getThreadAllocatedBytes(threadId) - before) / iterations
+        }
+
+        var sink = 0L
+        val legacy = allocatedPerOp { i ->
+            sink += legacyPayload("zeus_$i", "+15550100", body, 1_700_000_000_000L + i, 1, false).toByteArray(Charsets.UTF_8).size
+        }
+        val streaming = allocatedPerOp { i ->
+            sink += encoder.encode("zeus_$i", "+15550100", body, 1_700_000_000_000L + i, 1, false).size
+        }
+        println("Payload encoding: legacy=$legacy B/op, streaming=$streaming B/op (checksum $sink)")
+        assertTrue("streaming encoder should allocate less ($streaming vs $legacy B/op)", streaming < legacy)
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.smshook.sms
+
+import com.example.smshook.fragments.WebhookConfig
+import com.example.smshook.fragments.WebhookRateLimit
+import org.junit.Test
+import org.junit.Assert.*
+
+class WebhookRateLimiterTest {
+
+    @Test
+    fun testBucketAllowsBurstThenMakesCallersWait() {
+        val config = WebhookConfig("limited", "Limited", "https://example.com", rateLimit = WebhookRateLimit(requestsPerSecond = 2.0, burst = 3))
+        repeat(3) { assertEquals(0L, WebhookRateLimiter.acquire(config)) }
+
+        val wait = WebhookRateLimiter.acquire(config)
+        assertTrue("wait=$wait", wait in 1L..500L)
+        assertEquals(0, WebhookRateLimiter.available(config))
+
+        // Waiting inline for a token succeeds once the bucket refills
+        assertEquals(0L, WebhookRateLimiter.acquire(config, maxWaitMs = 1_000L))
+    }
+
+    @Test
+    fun testRetryAfterPausesEvenUnlimitedWebhooks() {
+        val config = WebhookConfig("unlimited", "Unlimited", "https://example.com")
+        assertEquals(Int.MAX_VALUE, WebhookRateLimiter.available(config))
+
+        WebhookRateLimiter.pause(config, 10_000L)
+        assertEquals(0, WebhookRateLimiter.available(config))
+        assertTrue(WebhookRateLimiter.delay(config) > 9_000L)
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.smshook.utils
+
+import org.junit.Test
+import org.junit.Assert.*
+
+class LatencyHistogramTest {
+
+    @Test
+    fun testPercentileWithinBucketResolution() {
+        val histogram = LatencyHistogram(windowSize = 1000)
+        assertEquals(-1L, histogram.percentile(0.99))
+
+        for (i in 1..1000) histogram.record(i.toLong())
+        val p50 = histogram.percentile(0.5)
+        val p99 = histogram.percentile(0.99)
+        assertTrue("p50=$p50", p50 in 500L..625L)
+        assertTrue("p99=$p99", p99 in 990L..1238L)
+    }
+
+    @Test
+    fun testOldWindowsAgeOut() {
+        val histogram = LatencyHistogram(windowSize = 100)
+        repeat(100) { histogram.record(30_000) }
+        repeat(200) { histogram.record(100) }
+
+        // Only the two most recent windows are kept, both of them fast
+        assertEquals(200, histogram.count())
+        assertTrue(histogram.percentile(0.99) <= 125)
+    }
+}